@@ -1,5 +1,6 @@
 package com.company;
 
+import com.company.common.FieldsDocument;
 import com.company.common.ISearch;
 import com.company.common.SearchQuery;
 import com.company.common.SearchQueryClause;
@@ -11,8 +12,11 @@ import com.company.service.IngestService;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.transport.TransportAddress;
@@ -118,6 +122,9 @@ public class AnnotatedProductsMain {
         new SearchQueryClause(SearchQueryClause.ClauseType.MATCH_TERM, "description", "nulla");
     SearchQueryClause clause3 =
         new SearchQueryClause(SearchQueryClause.ClauseType.MATCH_PHRASE, "name", "lobster");
+    SearchQueryClause inStock = SearchQueryClause.range("in_stock", 0, false, null, true);
+    SearchQueryClause underFifty = SearchQueryClause.range("price", null, true, 50, false);
+    SearchQueryClause wine = SearchQueryClause.terms("category.keyword", "Wine");
 
     // Count
     System.out.println("getMatchAllQueryCount " + search.count(SearchQuery.builder().build()));
@@ -126,6 +133,10 @@ public class AnnotatedProductsMain {
             + search.count(SearchQuery.builder().clause(clause1).clause(clause2).build()));
     System.out.println(
         "getPhraseQueryCount " + search.count(SearchQuery.builder().clause(clause3).build()));
+    System.out.println(
+        "getFilterQueryCount "
+            + search.count(
+                SearchQuery.builder().clause(inStock).clause(underFifty).clause(wine).build()));
 
     // Data
     System.out.println("getMatchAllQueryData");
@@ -150,12 +161,25 @@ public class AnnotatedProductsMain {
         });
 
     // Ingest single record
-    System.out.println("\nIngestService response::: " + search.ingest(indexName, "default", json1));
+    IndexResponse furby = search.ingest(indexName, "default", json1);
+    System.out.println("\nIngestService response::: " + furby);
 
-    // Ingest batch of records
+    // Ingest batch of typed records, written to XContent without building JSON strings
+    String starcraft = "From the Starcraft game.  Made by Blizzard.";
     System.out.println(
         "\nIngestService response::: "
-            + search.ingest(indexName, "default", Arrays.asList(json2, json3, json4)));
+            + search.ingestObjects(
+                indexName,
+                "default",
+                Arrays.asList(
+                    product("Terran Marine", 30, starcraft, 2),
+                    product("Zerg Hydralisk", 35, starcraft, 3),
+                    product("Protoss Zealot", 40, starcraft, 0))));
+
+    // Partial update of a single field
+    System.out.println(
+        "\nUpdate response::: "
+            + search.update(indexName, furby.getId(), "{\"in_stock\":\"5\"}"));
 
     // Count
     System.out.println("getMatchAllQueryCount " + search.count(SearchQuery.builder().build()));
@@ -171,4 +195,13 @@ public class AnnotatedProductsMain {
 
     search.destroy();
   }
+
+  private static FieldsDocument product(String name, double price, String description, long inStock) {
+    Map<String, Object> fields = new LinkedHashMap<>();
+    fields.put("name", name);
+    fields.put("price", price);
+    fields.put("description", description);
+    fields.put("in_stock", inStock);
+    return FieldsDocument.of(fields);
+  }
 }
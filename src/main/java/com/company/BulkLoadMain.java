@@ -0,0 +1,228 @@
+package com.company;
+
+import com.company.es.BulkFileChunker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.transport.TransportAddress;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.transport.client.PreBuiltTransportClient;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads a large NDJSON, _bulk or JSON array file in parallel bulk requests:
+ *
+ *   gradle -PmainClass=com.company.BulkLoadMain -Pargs="test-data.json annotated-products [concurrency] [bulkMb] [host:port] [cluster]" execute
+ *
+ * The cluster defaults to elasticsearch at 127.0.0.1:9300.
+ *
+ * The file offset up to which every bulk request succeeded is checkpointed in <file>.checkpoint,
+ * an interrupted load started again resumes from there.
+ */
+@Slf4j
+public class BulkLoadMain {
+
+  private static final int MAX_RETRIES = 5;
+  private static final long REPORT_SECONDS = 5;
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2) {
+      System.err.println("usage: BulkLoadMain file index [concurrency] [bulkMb] [host:port] [cluster]");
+      System.exit(1);
+    }
+
+    Path file = Paths.get(args[0]);
+    String indexName = args[1];
+    int concurrency = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+    int bulkBytes = ((args.length > 3) ? Integer.parseInt(args[3]) : 5) * 1024 * 1024;
+    String address = (args.length > 4) ? args[4] : "127.0.0.1:9300";
+    String clusterName = (args.length > 5) ? args[5] : "elasticsearch";
+
+    int colon = address.lastIndexOf(':');
+    String hostname = (colon < 0) ? address : address.substring(0, colon);
+    int port = (colon < 0) ? 9300 : Integer.parseInt(address.substring(colon + 1));
+
+    Settings settings = Settings.builder().put("cluster.name", clusterName).build();
+    Client client =
+        new PreBuiltTransportClient(settings)
+            .addTransportAddress(new TransportAddress(new InetSocketAddress(hostname, port)));
+
+    boolean completed;
+    try {
+      completed = new BulkLoadMain(client, indexName, concurrency).load(file, bulkBytes);
+    } finally {
+      client.close();
+    }
+    System.exit(completed ? 0 : 1);
+  }
+
+  private final Client client;
+  private final String indexName;
+  private final int concurrency;
+  private final Semaphore inFlight;
+  private final AtomicLong docs = new AtomicLong();
+  private final AtomicLong failedDocs = new AtomicLong();
+  private final AtomicBoolean aborted = new AtomicBoolean();
+  private ScheduledExecutorService scheduler;
+
+  // guarded by this: chunks completed out of order, by sequence number
+  private final TreeMap<Long, Long> completed = new TreeMap<>();
+  private long nextToCommit;
+  private long committedOffset;
+
+  public BulkLoadMain(Client client, String indexName, int concurrency) {
+    this.client = client;
+    this.indexName = indexName;
+    this.concurrency = concurrency;
+    this.inFlight = new Semaphore(concurrency);
+  }
+
+  /**
+   * @return false if the load stopped on a bulk request that kept failing
+   */
+  public boolean load(Path file, int bulkBytes) throws IOException, InterruptedException {
+    Path checkpoint = Paths.get(file + ".checkpoint");
+    committedOffset = Files.exists(checkpoint) ? Long.parseLong(new String(Files.readAllBytes(checkpoint), StandardCharsets.UTF_8).trim()) : 0;
+
+    // reports progress and resends failed bulk requests after their backoff
+    scheduler = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("bulk-load-%d").build());
+    long started = System.nanoTime();
+
+    try (BulkFileChunker chunker = new BulkFileChunker(file, committedOffset, bulkBytes)) {
+      log.info("loading {} ({}, {} bytes) into {} from offset {}", file, chunker.getFormat(), chunker.getSize(), indexName, committedOffset);
+      scheduler.scheduleAtFixedRate(() -> this.report(checkpoint, chunker.getSize(), started), REPORT_SECONDS, REPORT_SECONDS, TimeUnit.SECONDS);
+
+      long sequence = 0;
+      BulkFileChunker.Chunk chunk;
+      while (!aborted.get() && (chunk = chunker.next()) != null) {
+        BulkRequest request = new BulkRequest().add(chunk.getBody(), 0, chunk.getBody().length, indexName, "default", XContentType.JSON);
+        inFlight.acquire();
+        this.send(sequence++, chunk, request, 0);
+      }
+
+      // wait for the requests in flight
+      inFlight.acquire(concurrency);
+    } finally {
+      scheduler.shutdownNow();
+    }
+
+    this.report(checkpoint, Files.size(file), started);
+    if (!aborted.get()) {
+      Files.deleteIfExists(checkpoint);
+      log.info("loaded {} documents, {} failed", docs.get(), failedDocs.get());
+    }
+    return !aborted.get();
+  }
+
+  private void send(long sequence, BulkFileChunker.Chunk chunk, BulkRequest request, int attempt) {
+    client.bulk(request, ActionListener.wrap(
+      response -> this.onResponse(sequence, chunk, request, response, attempt),
+      e -> {
+        if (attempt < MAX_RETRIES) {
+          long backoffMillis = 100L << attempt;
+          log.warn("bulk of chunk {} failed ({}), retrying in {}ms", sequence, e.getMessage(), backoffMillis);
+          scheduler.schedule(() -> this.send(sequence, chunk, request, attempt + 1), backoffMillis, TimeUnit.MILLISECONDS);
+        } else {
+          log.error("bulk of chunk {} failed", sequence, e);
+          this.abort();
+          inFlight.release();
+        }
+      }));
+  }
+
+  /**
+   * Counts the documents indexed or failed for good; documents rejected by a full write queue (429)
+   * are resent alone after a backoff, the chunk is committed only once none of them is left.
+   */
+  private void onResponse(long sequence, BulkFileChunker.Chunk chunk, BulkRequest request, BulkResponse response, int attempt) {
+    BulkRequest rejected = new BulkRequest();
+    int failed = 0;
+    BulkItemResponse[] items = response.getItems();
+    for (int i = 0; i < items.length; i++) {
+      if (!items[i].isFailed()) {
+        continue;
+      }
+      if (items[i].getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS) {
+        // items are in request order
+        rejected.add(request.requests().get(i));
+      } else {
+        failed++;
+      }
+    }
+    if (failed > 0) {
+      log.warn("chunk {}: {} of {} documents failed: {}", sequence, failed, items.length, response.buildFailureMessage());
+    }
+    docs.addAndGet(items.length - failed - rejected.numberOfActions());
+    failedDocs.addAndGet(failed);
+
+    if (rejected.numberOfActions() == 0) {
+      this.commit(sequence, chunk.getEndOffset());
+      inFlight.release();
+    } else if (attempt < MAX_RETRIES) {
+      long backoffMillis = 100L << attempt;
+      log.warn("chunk {}: {} documents rejected, resending them in {}ms", sequence, rejected.numberOfActions(), backoffMillis);
+      scheduler.schedule(() -> this.send(sequence, chunk, rejected, attempt + 1), backoffMillis, TimeUnit.MILLISECONDS);
+    } else {
+      log.error("chunk {}: {} documents still rejected after {} retries", sequence, rejected.numberOfActions(), MAX_RETRIES);
+      this.abort();
+      inFlight.release();
+    }
+  }
+
+  /**
+   * Stops the load on a chunk that kept failing, once however many chunks fail. The chunk is not
+   * committed, a restarted load resends it; its caller gives back its permit like any finished chunk.
+   */
+  private void abort() {
+    if (aborted.compareAndSet(false, true)) {
+      log.error("stopping the load");
+    }
+  }
+
+  private synchronized void commit(long sequence, long endOffset) {
+    completed.put(sequence, endOffset);
+    while (completed.containsKey(nextToCommit)) {
+      committedOffset = completed.remove(nextToCommit++);
+    }
+  }
+
+  private void report(Path checkpoint, long size, long started) {
+    long offset;
+    synchronized (this) {
+      offset = committedOffset;
+    }
+
+    try {
+      Path tmp = Paths.get(checkpoint + ".tmp");
+      Files.write(tmp, String.valueOf(offset).getBytes(StandardCharsets.UTF_8));
+      Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.error("Failed to write checkpoint {}", checkpoint, e);
+    }
+
+    double seconds = Math.max(1, System.nanoTime() - started) / 1e9;
+    log.info("{} docs, {} docs/sec, {} failed, committed offset {} of {} ({}%)", docs.get(), (long) (docs.get() / seconds),
+      failedDocs.get(), offset, size, (size == 0) ? 100 : offset * 100 / size);
+  }
+}
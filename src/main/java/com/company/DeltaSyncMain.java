@@ -0,0 +1,56 @@
+package com.company;
+
+import com.company.common.ISearch;
+import com.company.es.ESSearchImpl;
+import com.company.service.DeltaSync;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONValue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Syncs an index with a JSON array or NDJSON source file, sending only what changed since the last run:
+ *
+ *   gradle -PmainClass=com.company.DeltaSyncMain -Pargs="article-data.json articles title" execute
+ *
+ * The manifest of the last sync is kept in <file>.manifest
+ */
+public class DeltaSyncMain {
+  public static void main(String[] args) throws Exception {
+    if (args.length < 3) {
+      System.err.println("usage: DeltaSyncMain file index idField");
+      System.exit(1);
+    }
+
+    Path file = Paths.get(args[0]);
+    String indexName = args[1];
+    String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+
+    List<String> docs = new ArrayList<>();
+    if (content.startsWith("[")) {
+      for (Object doc : (JSONArray) JSONValue.parse(content)) {
+        docs.add(JSONValue.toJSONString(doc));
+      }
+    } else {
+      for (String line : content.split("\n")) {
+        if (!line.trim().isEmpty()) {
+          docs.add(line);
+        }
+      }
+    }
+
+    ISearch search = new ESSearchImpl("127.0.0.1", 9300, "elasticsearch", Collections.singletonList(indexName));
+    try {
+      DeltaSync deltaSync = new DeltaSync(search, indexName, args[2], Paths.get(file + ".manifest"));
+      System.out.println(deltaSync.sync(docs));
+    } finally {
+      search.destroy();
+    }
+  }
+}
@@ -0,0 +1,151 @@
+package com.company.cache;
+
+import com.company.common.ChangeFeedCursor;
+import com.company.common.ChangeFeedPage;
+import com.company.common.ISearch;
+import com.company.common.SearchQuery;
+import com.company.common.SearchResult;
+import com.company.common.SingleFlight;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.common.xcontent.ToXContentObject;
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * ISearch sharing one execution between identical in-flight search, count and get calls, keyed by
+ * the query fingerprint. Results of a shared search are collected first and then replayed to the
+ * consumer of each caller; the SearchResult instances are shared between callers.
+ * Debug (profiled) and session (search-as-you-type, cancellable) queries are not coalesced.
+ */
+public class CoalescingSearch implements ISearch {
+
+  private final ISearch search;
+  private final SingleFlight<String, List<SearchResult>> searches = new SingleFlight<>();
+  private final SingleFlight<String, Long> counts = new SingleFlight<>();
+  private final SingleFlight<String, SearchResult> gets = new SingleFlight<>();
+
+  public CoalescingSearch(ISearch search) {
+    this.search = search;
+  }
+
+  @Override
+  public void search(SearchQuery searchQuery, Consumer<SearchResult> consumer) {
+    if (!this.isCoalescable(searchQuery)) {
+      search.search(searchQuery, consumer);
+      return;
+    }
+
+    List<SearchResult> results = searches.execute(searchQuery.fingerprint(), () -> {
+      List<SearchResult> collected = new ArrayList<>();
+      search.search(searchQuery, collected::add);
+      return collected;
+    });
+    results.forEach(consumer);
+  }
+
+  @Override
+  public void searchWhile(SearchQuery searchQuery, Predicate<SearchResult> consumer) {
+    search.searchWhile(searchQuery, consumer);
+  }
+
+  @Override
+  public Flow.Publisher<SearchResult> publish(SearchQuery searchQuery) {
+    return search.publish(searchQuery);
+  }
+
+  @Override
+  public long count(SearchQuery searchQuery) {
+    if (!this.isCoalescable(searchQuery)) {
+      return search.count(searchQuery);
+    }
+    return counts.execute(searchQuery.fingerprint(), () -> search.count(searchQuery));
+  }
+
+  @Override
+  public SearchResult get(String indexName, String id) {
+    return gets.execute(indexName + "/" + id, () -> search.get(indexName, id));
+  }
+
+  @Override
+  public ChangeFeedPage changes(String indexName, ChangeFeedCursor cursor, int batchSize) {
+    return search.changes(indexName, cursor, batchSize);
+  }
+
+  @Override
+  public IndexResponse ingest(String indexName, String type, String doc) {
+    return search.ingest(indexName, type, doc);
+  }
+
+  @Override
+  public BulkResponse ingest(String indexName, String type, List<String> docs) {
+    return search.ingest(indexName, type, docs);
+  }
+
+  @Override
+  public IndexResponse ingest(String indexName, String type, ToXContentObject doc) {
+    return search.ingest(indexName, type, doc);
+  }
+
+  @Override
+  public BulkResponse ingestObjects(String indexName, String type, List<? extends ToXContentObject> docs) {
+    return search.ingestObjects(indexName, type, docs);
+  }
+
+  @Override
+  public BulkResponse index(String indexName, String type, Map<String, String> docs) {
+    return search.index(indexName, type, docs);
+  }
+
+  @Override
+  public UpdateResponse update(String indexName, String id, String partialDoc) {
+    return search.update(indexName, id, partialDoc);
+  }
+
+  @Override
+  public UpdateResponse upsert(String indexName, String id, String partialDoc) {
+    return search.upsert(indexName, id, partialDoc);
+  }
+
+  @Override
+  public BulkResponse update(String indexName, Map<String, String> partialDocs) {
+    return search.update(indexName, partialDocs);
+  }
+
+  @Override
+  public BulkResponse increment(String indexName, Map<String, Map<String, Long>> deltas) {
+    return search.increment(indexName, deltas);
+  }
+
+  @Override
+  public DeleteResponse delete(String index, String id) {
+    return search.delete(index, id);
+  }
+
+  @Override
+  public BulkResponse delete(String indexName, String type, List<String> ids) {
+    return search.delete(indexName, type, ids);
+  }
+
+  @Override
+  public BulkByScrollResponse deleteByQuery(String indexName, String description) {
+    return search.deleteByQuery(indexName, description);
+  }
+
+  @Override
+  public void destroy() {
+    search.destroy();
+  }
+
+  private boolean isCoalescable(SearchQuery searchQuery) {
+    return !searchQuery.isDebugMode() && (searchQuery.getSessionId() == null);
+  }
+}
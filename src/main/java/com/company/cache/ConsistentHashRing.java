@@ -0,0 +1,43 @@
+package com.company.cache;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent-hash ring of peers, each placed at VIRTUAL_NODES points so keys spread evenly and
+ * adding or removing a peer only moves the keys of that peer
+ */
+public class ConsistentHashRing {
+
+  public static final int VIRTUAL_NODES = 128;
+
+  private static final HashFunction hashFunction = Hashing.murmur3_128();
+
+  private final TreeMap<Long, String> ring = new TreeMap<>();
+
+  public ConsistentHashRing(Collection<String> peers) {
+    for (String peer : peers) {
+      for (int i = 0; i < VIRTUAL_NODES; i++) {
+        ring.put(hash(peer + "#" + i), peer);
+      }
+    }
+  }
+
+  public String owner(String key) {
+    if (ring.isEmpty()) {
+      throw new IllegalStateException("no peers in the ring");
+    }
+
+    Map.Entry<Long, String> entry = ring.ceilingEntry(hash(key));
+    return (entry != null) ? entry.getValue() : ring.firstEntry().getValue();
+  }
+
+  private static long hash(String value) {
+    return hashFunction.hashString(value, StandardCharsets.UTF_8).asLong();
+  }
+}
@@ -0,0 +1,44 @@
+package com.company.cache;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs one peer of the result cache without ES, for trying the ring with several local JVMs:
+ *
+ *   gradle -PmainClass=com.company.cache.PeerCacheMain -Pargs="localhost:9101 localhost:9101 localhost:9102" execute
+ *
+ * First argument is this peer, the rest the peer list. Each line read from stdin is a key; the
+ * value printed tells which peer computed it. Peers share the secret in PEER_CACHE_SECRET, if set.
+ */
+@Slf4j
+public class PeerCacheMain {
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2) {
+      System.err.println("usage: PeerCacheMain self peer1 [peer2 ...]");
+      System.exit(1);
+    }
+
+    String self = args[0];
+    List<String> peers = Arrays.asList(args).subList(1, args.length);
+    PeerResultCache cache = new PeerResultCache(self, peers, System.getenv("PEER_CACHE_SECRET"));
+
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))) {
+      String key;
+      while ((key = in.readLine()) != null) {
+        if (key.trim().isEmpty()) {
+          continue;
+        }
+        String value = cache.get(key.trim(), () -> "computed by " + self + " at " + System.currentTimeMillis());
+        System.out.println(key.trim() + " -> " + value + (cache.isOwner(key.trim()) ? " (owner)" : ""));
+      }
+    } finally {
+      cache.destroy();
+    }
+  }
+}
@@ -0,0 +1,182 @@
+package com.company.cache;
+
+import com.company.common.ChangeFeedCursor;
+import com.company.common.ChangeFeedPage;
+import com.company.common.ISearch;
+import com.company.common.SearchQuery;
+import com.company.common.SearchResult;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.common.xcontent.ToXContentObject;
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * ISearch answering search and count from the peer result cache, keyed by the query fingerprint.
+ * Debug (profiled), session (search-as-you-type) and inner hits queries always go to ES.
+ * Writes are not invalidated, cached results are at most the cache TTL old.
+ */
+public class PeerCachedSearch implements ISearch {
+
+  private final ISearch search;
+  private final PeerResultCache cache;
+
+  public PeerCachedSearch(ISearch search, PeerResultCache cache) {
+    this.search = search;
+    this.cache = cache;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void search(SearchQuery searchQuery, Consumer<SearchResult> consumer) {
+    if (!this.isCacheable(searchQuery)) {
+      search.search(searchQuery, consumer);
+      return;
+    }
+
+    String value = cache.get("search-" + searchQuery.fingerprint(), () -> {
+      JSONArray results = new JSONArray();
+      search.search(searchQuery, result -> results.add(toJson(result)));
+      return results.toJSONString();
+    });
+
+    for (Object result : (JSONArray) JSONValue.parse(value)) {
+      consumer.accept(toSearchResult((JSONObject) result));
+    }
+  }
+
+  @Override
+  public void searchWhile(SearchQuery searchQuery, Predicate<SearchResult> consumer) {
+    search.searchWhile(searchQuery, consumer);
+  }
+
+  @Override
+  public Flow.Publisher<SearchResult> publish(SearchQuery searchQuery) {
+    return search.publish(searchQuery);
+  }
+
+  @Override
+  public long count(SearchQuery searchQuery) {
+    if (!this.isCacheable(searchQuery)) {
+      return search.count(searchQuery);
+    }
+    return Long.parseLong(cache.get("count-" + searchQuery.fingerprint(), () -> String.valueOf(search.count(searchQuery))));
+  }
+
+  @Override
+  public SearchResult get(String indexName, String id) {
+    return search.get(indexName, id);
+  }
+
+  @Override
+  public ChangeFeedPage changes(String indexName, ChangeFeedCursor cursor, int batchSize) {
+    return search.changes(indexName, cursor, batchSize);
+  }
+
+  @Override
+  public IndexResponse ingest(String indexName, String type, String doc) {
+    return search.ingest(indexName, type, doc);
+  }
+
+  @Override
+  public BulkResponse ingest(String indexName, String type, List<String> docs) {
+    return search.ingest(indexName, type, docs);
+  }
+
+  @Override
+  public IndexResponse ingest(String indexName, String type, ToXContentObject doc) {
+    return search.ingest(indexName, type, doc);
+  }
+
+  @Override
+  public BulkResponse ingestObjects(String indexName, String type, List<? extends ToXContentObject> docs) {
+    return search.ingestObjects(indexName, type, docs);
+  }
+
+  @Override
+  public BulkResponse index(String indexName, String type, Map<String, String> docs) {
+    return search.index(indexName, type, docs);
+  }
+
+  @Override
+  public UpdateResponse update(String indexName, String id, String partialDoc) {
+    return search.update(indexName, id, partialDoc);
+  }
+
+  @Override
+  public UpdateResponse upsert(String indexName, String id, String partialDoc) {
+    return search.upsert(indexName, id, partialDoc);
+  }
+
+  @Override
+  public BulkResponse update(String indexName, Map<String, String> partialDocs) {
+    return search.update(indexName, partialDocs);
+  }
+
+  @Override
+  public BulkResponse increment(String indexName, Map<String, Map<String, Long>> deltas) {
+    return search.increment(indexName, deltas);
+  }
+
+  @Override
+  public DeleteResponse delete(String index, String id) {
+    return search.delete(index, id);
+  }
+
+  @Override
+  public BulkResponse delete(String indexName, String type, List<String> ids) {
+    return search.delete(indexName, type, ids);
+  }
+
+  @Override
+  public BulkByScrollResponse deleteByQuery(String indexName, String description) {
+    return search.deleteByQuery(indexName, description);
+  }
+
+  @Override
+  public void destroy() {
+    cache.destroy();
+    search.destroy();
+  }
+
+  private boolean isCacheable(SearchQuery searchQuery) {
+    return !searchQuery.isDebugMode() && (searchQuery.getSessionId() == null) && (searchQuery.getCollapseInnerHits() == 0);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static JSONObject toJson(SearchResult result) {
+    JSONObject json = new JSONObject();
+    json.put("id", result.getId());
+    json.put("indexId", result.getIndexId());
+    json.put("contentId", result.getContentId());
+    json.put("type", result.getType());
+    json.put("score", (double) result.getScore());
+    json.put("title", result.getTitle());
+    json.put("source", result.getSourceAsString());
+    json.put("collapseKey", result.getCollapseKey());
+    return json;
+  }
+
+  private static SearchResult toSearchResult(JSONObject json) {
+    return SearchResult.builder()
+      .id((String) json.get("id"))
+      .indexId((String) json.get("indexId"))
+      .contentId((String) json.get("contentId"))
+      .type((String) json.get("type"))
+      .score(((Number) json.get("score")).floatValue())
+      .title((String) json.get("title"))
+      .sourceAsString((String) json.get("source"))
+      .collapseKey((String) json.get("collapseKey"))
+      .build();
+  }
+}
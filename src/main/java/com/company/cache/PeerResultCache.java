@@ -0,0 +1,230 @@
+package com.company.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Result cache shared by the instances of the search service. Each key (query fingerprint) is
+ * owned by one peer of a consistent-hash ring built from a static peer list; an instance asks the
+ * owner over HTTP before computing a value itself, then stores the value at the owner.
+ * An unreachable owner only costs a local computation.
+ *
+ * Peers are "host:port", self must be one of them; the server listens on the host of self only
+ * (localhost if self is just ":port"). Values are read and stored only by peers: a request must
+ * come from the address of a peer (resolved at startup) and, when a shared secret is set, carry it
+ * in the SECRET_HEADER.
+ */
+@Slf4j
+public class PeerResultCache {
+
+  public static final long DEFAULT_TTL_SECONDS = 60;
+  public static final long DEFAULT_MAX_ENTRIES = 10000;
+  private static final int CONNECT_TIMEOUT_MILLIS = 50;
+  private static final int READ_TIMEOUT_MILLIS = 200;
+  private static final String PATH = "/cache/";
+  public static final String SECRET_HEADER = "X-Peer-Cache-Secret";
+
+  private final String self;
+  private final ConsistentHashRing ring;
+  private final Set<InetAddress> peerAddresses = new HashSet<>();
+  private final byte[] secret;
+  private final Cache<String, String> entries;
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  public PeerResultCache(String self, List<String> peers) throws IOException {
+    this(self, peers, null);
+  }
+
+  public PeerResultCache(String self, List<String> peers, String secret) throws IOException {
+    this(self, peers, secret, DEFAULT_TTL_SECONDS, DEFAULT_MAX_ENTRIES);
+  }
+
+  /**
+   * @param secret shared by all the peers, null to trust any connection from a peer address
+   */
+  public PeerResultCache(String self, List<String> peers, String secret, long ttlSeconds, long maxEntries) throws IOException {
+    if (!peers.contains(self)) {
+      throw new IllegalArgumentException(self + " is not one of the peers " + peers);
+    }
+
+    this.self = self;
+    this.ring = new ConsistentHashRing(peers);
+    this.secret = (secret == null) ? null : secret.getBytes(StandardCharsets.UTF_8);
+    for (String peer : peers) {
+      peerAddresses.addAll(Arrays.asList(InetAddress.getAllByName(host(peer))));
+    }
+    this.entries = CacheBuilder.newBuilder()
+      .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+      .maximumSize(maxEntries)
+      .build();
+    this.executor = Executors.newFixedThreadPool(4,
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("peer-cache-%d").build());
+
+    int port = Integer.parseInt(self.substring(self.lastIndexOf(':') + 1));
+    this.server = HttpServer.create(new InetSocketAddress(host(self), port), 0);
+    this.server.createContext(PATH, this::handle);
+    this.server.setExecutor(executor);
+    this.server.start();
+    log.info("peer cache {} started, peers {}", self, peers);
+  }
+
+  /**
+   * Value of the key from its owner, computed by the loader (and stored at the owner) on a miss
+   */
+  public String get(String key, Supplier<String> loader) {
+    String owner = ring.owner(key);
+
+    if (owner.equals(self)) {
+      try {
+        return entries.get(key, loader::get);
+      } catch (ExecutionException e) {
+        throw new IllegalStateException(e.getCause());
+      }
+    }
+
+    String value = this.fetch(owner, key);
+    if (value != null) {
+      return value;
+    }
+
+    String loaded = loader.get();
+    executor.execute(() -> this.store(owner, key, loaded));
+    return loaded;
+  }
+
+  public boolean isOwner(String key) {
+    return ring.owner(key).equals(self);
+  }
+
+  public void destroy() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    String key = exchange.getRequestURI().getPath().substring(PATH.length());
+
+    try {
+      if (!this.isPeer(exchange)) {
+        log.warn("rejected {} of {} from {}", exchange.getRequestMethod(), key, exchange.getRemoteAddress());
+        exchange.sendResponseHeaders(403, -1);
+        return;
+      }
+
+      if ("GET".equals(exchange.getRequestMethod())) {
+        String value = entries.getIfPresent(key);
+        if (value == null) {
+          exchange.sendResponseHeaders(404, -1);
+        } else {
+          byte[] body = value.getBytes(StandardCharsets.UTF_8);
+          exchange.sendResponseHeaders(200, body.length);
+          try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+          }
+        }
+      } else if ("PUT".equals(exchange.getRequestMethod())) {
+        try (InputStream in = exchange.getRequestBody()) {
+          entries.put(key, new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8));
+        }
+        exchange.sendResponseHeaders(204, -1);
+      } else {
+        exchange.sendResponseHeaders(405, -1);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private boolean isPeer(HttpExchange exchange) {
+    if (!peerAddresses.contains(exchange.getRemoteAddress().getAddress())) {
+      return false;
+    }
+    if (secret == null) {
+      return true;
+    }
+    String header = exchange.getRequestHeaders().getFirst(SECRET_HEADER);
+    return (header != null) && MessageDigest.isEqual(secret, header.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String host(String peer) {
+    int colon = peer.lastIndexOf(':');
+    return (colon <= 0) ? "localhost" : peer.substring(0, colon);
+  }
+
+  private String fetch(String owner, String key) {
+    HttpURLConnection connection = null;
+
+    try {
+      connection = this.open(owner, key);
+      if (connection.getResponseCode() != 200) {
+        return null;
+      }
+      try (InputStream in = connection.getInputStream()) {
+        return new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+      }
+    } catch (IOException e) {
+      log.debug("peer {} unavailable: {}", owner, e.getMessage());
+      return null;
+    } finally {
+      if (connection != null) {
+        connection.disconnect();
+      }
+    }
+  }
+
+  private void store(String owner, String key, String value) {
+    HttpURLConnection connection = null;
+
+    try {
+      connection = this.open(owner, key);
+      connection.setRequestMethod("PUT");
+      connection.setDoOutput(true);
+      try (OutputStream out = connection.getOutputStream()) {
+        out.write(value.getBytes(StandardCharsets.UTF_8));
+      }
+      connection.getResponseCode();
+    } catch (IOException e) {
+      log.debug("Failed to store {} at peer {}: {}", key, owner, e.getMessage());
+    } finally {
+      if (connection != null) {
+        connection.disconnect();
+      }
+    }
+  }
+
+  private HttpURLConnection open(String owner, String key) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL("http://" + owner + PATH + URLEncoder.encode(key, "UTF-8").replace("+", "%20")).openConnection();
+    connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+    connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+    if (secret != null) {
+      connection.setRequestProperty(SECRET_HEADER, new String(secret, StandardCharsets.UTF_8));
+    }
+    return connection;
+  }
+}
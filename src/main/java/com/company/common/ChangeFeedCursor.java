@@ -0,0 +1,61 @@
+package com.company.common;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Resumable position in the change feed of an index: the last _seq_no read from each shard.
+ * toString() and parse() round trip, so a cursor can be persisted as a checkpoint.
+ */
+public class ChangeFeedCursor {
+
+  public static final long NO_SEQ_NO = -1;
+
+  private final Map<Integer, Long> checkpoints;
+
+  private ChangeFeedCursor(Map<Integer, Long> checkpoints) {
+    this.checkpoints = Collections.unmodifiableMap(new TreeMap<>(checkpoints));
+  }
+
+  public static ChangeFeedCursor start() {
+    return new ChangeFeedCursor(Collections.emptyMap());
+  }
+
+  public static ChangeFeedCursor parse(String cursor) {
+    Map<Integer, Long> checkpoints = new TreeMap<>();
+
+    if (cursor != null && !cursor.trim().isEmpty()) {
+      for (String checkpoint : cursor.split(",")) {
+        String[] shardAndSeqNo = checkpoint.trim().split(":");
+        if (shardAndSeqNo.length != 2) {
+          throw new IllegalArgumentException("invalid change feed cursor " + cursor);
+        }
+        checkpoints.put(Integer.parseInt(shardAndSeqNo[0]), Long.parseLong(shardAndSeqNo[1]));
+      }
+    }
+    return new ChangeFeedCursor(checkpoints);
+  }
+
+  public long getCheckpoint(int shard) {
+    return checkpoints.getOrDefault(shard, NO_SEQ_NO);
+  }
+
+  public ChangeFeedCursor advance(int shard, long seqNo) {
+    Map<Integer, Long> advanced = new TreeMap<>(checkpoints);
+    advanced.put(shard, Math.max(seqNo, this.getCheckpoint(shard)));
+    return new ChangeFeedCursor(advanced);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder cursor = new StringBuilder();
+    checkpoints.forEach((shard, seqNo) -> {
+      if (cursor.length() > 0) {
+        cursor.append(',');
+      }
+      cursor.append(shard).append(':').append(seqNo);
+    });
+    return cursor.toString();
+  }
+}
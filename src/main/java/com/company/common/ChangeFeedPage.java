@@ -0,0 +1,24 @@
+package com.company.common;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Singular;
+
+import java.util.List;
+
+/**
+ * One ordered batch of the change feed, documents ordered by shard then _seq_no
+ */
+@Getter
+@Builder
+public class ChangeFeedPage {
+
+  @Singular
+  private List<SearchResult> results;
+
+  // cursor to read the next batch from
+  private ChangeFeedCursor next;
+
+  // false once every shard is read up to its checkpoint
+  private boolean hasMore;
+}
@@ -0,0 +1,21 @@
+package com.company.common;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Joins search hits with documents of a secondary index (inventory, pricing overrides, ...).
+ * The value of joinField in the hit source is the id of the secondary document, whose source
+ * is merged into the hit source under targetField.
+ */
+@Getter
+@Builder
+public class Enrichment {
+
+  private String indexName;
+
+  // field of the hit source holding the secondary document id, the hit id when null
+  private String joinField;
+
+  private String targetField;
+}
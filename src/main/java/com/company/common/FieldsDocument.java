@@ -0,0 +1,32 @@
+package com.company.common;
+
+import lombok.Getter;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.ToXContentObject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Typed document made of a field map (numbers, booleans, dates, lists and nested maps keep their
+ * types), written straight to XContent without an intermediate JSON string
+ */
+public class FieldsDocument implements ToXContentObject {
+
+  @Getter
+  private final Map<String, ?> fields;
+
+  public FieldsDocument(Map<String, ?> fields) {
+    this.fields = fields;
+  }
+
+  public static FieldsDocument of(Map<String, ?> fields) {
+    return new FieldsDocument(fields);
+  }
+
+  @Override
+  public XContentBuilder toXContent(XContentBuilder builder, ToXContent.Params params) throws IOException {
+    return builder.map(fields);
+  }
+}
@@ -3,25 +3,70 @@ package com.company.common;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteResponse;
 import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.common.xcontent.ToXContentObject;
 import org.elasticsearch.index.reindex.BulkByScrollResponse;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Flow;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 public interface ISearch {
 
   public void search(SearchQuery searchQuery, Consumer<SearchResult> consumer);
 
+  /**
+   * Pages through all results while the consumer returns true. Once it returns false no
+   * further page is fetched and the outstanding page request is cancelled.
+   */
+  public void searchWhile(SearchQuery searchQuery, Predicate<SearchResult> consumer);
+
+  /**
+   * Results as a publisher: pages are fetched as the subscriber requests them, a slow
+   * subscriber holds back fetching instead of having results buffered for it.
+   */
+  public Flow.Publisher<SearchResult> publish(SearchQuery searchQuery);
+
   public long count(SearchQuery searchQuery);
 
   public SearchResult get(String indexName, String id);
 
+  public ChangeFeedPage changes(String indexName, ChangeFeedCursor cursor, int batchSize);
+
   public IndexResponse ingest(String indexName, String type, String doc);
 
   public BulkResponse ingest(String indexName, String type, List<String> docs);
 
+  /**
+   * Ingests a typed document (a FieldsDocument or a POJO implementing ToXContentObject), written
+   * straight to the source XContent of the request
+   */
+  public IndexResponse ingest(String indexName, String type, ToXContentObject doc);
+
+  public BulkResponse ingestObjects(String indexName, String type, List<? extends ToXContentObject> docs);
+
+  /**
+   * Indexes (creates or replaces) the documents, id to JSON document, in bulk batches
+   */
+  public BulkResponse index(String indexName, String type, Map<String, String> docs);
+
+  public UpdateResponse update(String indexName, String id, String partialDoc);
+
+  public UpdateResponse upsert(String indexName, String id, String partialDoc);
+
+  public BulkResponse update(String indexName, Map<String, String> partialDocs);
+
+  public BulkResponse increment(String indexName, Map<String, Map<String, Long>> deltas);
+
   public DeleteResponse delete(String index, String id);
 
+  /**
+   * Deletes the documents of the type in bulk batches, a missing document is a NOT_FOUND result
+   */
+  public BulkResponse delete(String indexName, String type, List<String> ids);
+
   public BulkByScrollResponse deleteByQuery(String indexName, String description);
 
   public void destroy();
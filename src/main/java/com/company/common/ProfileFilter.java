@@ -0,0 +1,44 @@
+package com.company.common;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Filters of the user profile on keyword fields of the content
+ */
+public enum ProfileFilter {
+  FILTER_BY_COUNTRY("countries.keyword"),
+  FILTER_BY_LOCATION("locations.keyword"),
+  FILTER_BY_DEPARTMENT("department.keyword");
+
+  private final String field;
+
+  ProfileFilter(String field) {
+    this.field = field;
+  }
+
+  public String getField() {
+    return field;
+  }
+
+  /**
+   * Normalized, distinct and sorted values: same values in any order make the same filter
+   */
+  public static List<String> canonical(Collection<String> values) {
+    if (values == null) {
+      return Collections.emptyList();
+    }
+    return values.stream()
+      .filter(Objects::nonNull)
+      .map(StringUtils::normalizeSpace)
+      .filter(StringUtils::isNotEmpty)
+      .distinct()
+      .sorted()
+      .collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,36 @@
+package com.company.common;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Singular;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ES profile API timings of one shard, captured when a SearchQuery runs in debug mode
+ */
+@Getter
+@Builder
+public class QueryProfile {
+
+  private String shard;
+  private long rewriteTimeNanos;
+
+  @Singular
+  private List<Node> nodes;
+
+  @Getter
+  @Builder
+  public static class Node {
+    private String queryType;
+    private String description;
+    private long timeNanos;
+    // create_weight, build_scorer, next_doc, advance, match, score, ... in nanos
+    private Map<String, Long> breakdown;
+    // the clause of createBoolQuery this node was produced from, null if unknown
+    private SearchQueryClause clause;
+    @Singular
+    private List<Node> children;
+  }
+}
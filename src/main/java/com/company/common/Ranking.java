@@ -0,0 +1,8 @@
+package com.company.common;
+
+public enum Ranking {
+  // relevance only
+  BM25,
+  // relevance plus popularity (sold) and recency (created) rank features
+  POPULARITY
+}
@@ -1,19 +1,26 @@
 package com.company.common;
 
+import com.google.common.hash.Hashing;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.Singular;
 import lombok.extern.slf4j.Slf4j;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 @Getter
 @Builder
 @Slf4j
 public class SearchQuery {
 
+  public static final int DEFAULT_PAGE_SIZE = 10;
+
   @Setter
   @Singular
   protected List<String> indexes;
@@ -26,6 +33,66 @@ public class SearchQuery {
 
   private Map<String, List<String>> synonymsMap;
 
+  // filters of the user profile, applied as shared terms-lookup filters
+  @Builder.Default
+  private Map<ProfileFilter, List<String>> profileFilters = Collections.emptyMap();
+
+  // search-as-you-type session, a newer search of the same session cancels this one
+  private String sessionId;
+
+  // request of a session begun upstream (QueryObject.startSession()), cancelling it cancels this search
+  private SessionRequestTracker.Request sessionRequest;
+
+  // run with the ES profile API and attach per-clause timings to the results
+  private boolean debugMode;
+
+  // field collapsing: one best hit per distinct value of collapseField (e.g. contentId, sourceURI)
+  private String collapseField;
+
+  // when > 0, each collapsed hit carries up to this many other hits of its group
+  private int collapseInnerHits;
+
+  @Builder.Default
+  private Ranking ranking = Ranking.BM25;
+
+  // hits per page fetched from ES
+  @Builder.Default
+  private int pageSize = DEFAULT_PAGE_SIZE;
+
+  // join each page of hits with documents of a secondary index
+  private Enrichment enrichment;
+
+  public String getSessionId() {
+    return (sessionRequest != null) ? sessionRequest.getSessionId() : sessionId;
+  }
+
+  public boolean isCollapsed() {
+    return (this.collapseField != null);
+  }
+
+  /**
+   * Canonical fingerprint of what the query returns: same indexes, clauses and profile filter values
+   * in any order, same collapsing, ranking, page size and enrichment
+   */
+  public String fingerprint() {
+    StringBuilder canonical = new StringBuilder();
+
+    canonical.append(new TreeSet<>(indexes)).append('|');
+    TreeSet<String> canonicalClauses = new TreeSet<>();
+    clauses.forEach(clause -> canonicalClauses.add(clause.toString()));
+    canonical.append(canonicalClauses).append('|');
+    TreeMap<ProfileFilter, List<String>> canonicalFilters = new TreeMap<>();
+    profileFilters.forEach((filter, values) -> canonicalFilters.put(filter, ProfileFilter.canonical(values)));
+    canonical.append(canonicalFilters).append('|');
+    canonical.append(collapseField).append('|').append(collapseInnerHits).append('|');
+    canonical.append(ranking).append('|').append(pageSize).append('|');
+    if (enrichment != null) {
+      canonical.append(enrichment.getIndexName()).append(',').append(enrichment.getJoinField()).append(',').append(enrichment.getTargetField());
+    }
+
+    return Hashing.sha256().hashString(canonical, StandardCharsets.UTF_8).toString();
+  }
+
   public boolean hasTokens() {
     return ((this.sentence != null) && (this.sentence.getWordCount() > 0));
   }
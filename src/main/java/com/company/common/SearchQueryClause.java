@@ -1,21 +1,92 @@
 package com.company.common;
 
-import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 @Data
-@AllArgsConstructor
+@NoArgsConstructor
 public class SearchQueryClause {
 
   protected ClauseType type;
   protected String fieldName;
   protected String text;
 
+  // TERMS values
+  protected List<String> values = new ArrayList<>();
+
+  // RANGE bounds, null means unbounded
+  protected Object from;
+  protected Object to;
+  protected boolean includeLower = true;
+  protected boolean includeUpper = true;
+
+  public SearchQueryClause(ClauseType type, String fieldName, String text) {
+    this.type = type;
+    this.fieldName = fieldName;
+    this.text = text;
+  }
+
+  /**
+   * Filter clauses are compiled into the non-scoring filter context of the bool query
+   */
+  public boolean isFilter() {
+    return type.isFilter();
+  }
+
+  public static SearchQueryClause range(String fieldName, Object from, Object to) {
+    return range(fieldName, from, true, to, true);
+  }
+
+  public static SearchQueryClause range(String fieldName, Object from, boolean includeLower, Object to, boolean includeUpper) {
+    SearchQueryClause clause = new SearchQueryClause(ClauseType.RANGE, fieldName, null);
+    clause.setFrom(from);
+    clause.setIncludeLower(includeLower);
+    clause.setTo(to);
+    clause.setIncludeUpper(includeUpper);
+    return clause;
+  }
+
+  public static SearchQueryClause terms(String fieldName, String... values) {
+    return terms(fieldName, Arrays.asList(values));
+  }
+
+  public static SearchQueryClause terms(String fieldName, List<String> values) {
+    SearchQueryClause clause = new SearchQueryClause(ClauseType.TERMS, fieldName, null);
+    clause.setValues(new ArrayList<>(values));
+    return clause;
+  }
+
+  public static SearchQueryClause exists(String fieldName) {
+    return new SearchQueryClause(ClauseType.EXISTS, fieldName, null);
+  }
+
+  public static SearchQueryClause prefix(String fieldName, String prefix) {
+    return new SearchQueryClause(ClauseType.PREFIX, fieldName, prefix);
+  }
+
   public enum ClauseType {
-    ALL,
-    MATCH,
-    MATCH_TERM,
-    MATCH_PHRASE,
-    MULTI_MATCH
+    ALL(false),
+    MATCH(false),
+    MATCH_TERM(false),
+    MATCH_PHRASE(false),
+    MULTI_MATCH(false),
+    RANGE(true),
+    TERMS(true),
+    EXISTS(true),
+    PREFIX(true);
+
+    private final boolean filter;
+
+    ClauseType(boolean filter) {
+      this.filter = filter;
+    }
+
+    public boolean isFilter() {
+      return filter;
+    }
   }
 }
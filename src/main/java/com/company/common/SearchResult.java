@@ -39,6 +39,16 @@ public class SearchResult {
   private List<MatchedKeywords> matches;
   @Getter
   private List<MatchStat> matchStats;
+  @Getter @Setter
+  private String collapseKey;
+  @Getter @Setter
+  private List<SearchResult> innerHits;
+  @Getter @Setter
+  private List<QueryProfile> profiles;
+  @Getter @Setter
+  private long seqNo;
+  @Getter @Setter
+  private long primaryTerm;
 
   @Builder
   public static class ResultPosition {
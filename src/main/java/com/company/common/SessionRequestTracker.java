@@ -0,0 +1,82 @@
+package com.company.common;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the in-flight request of each session (e.g. search-as-you-type), a newer request
+ * of a session cancels the one it supersedes
+ */
+@Slf4j
+public class SessionRequestTracker {
+
+  private final ConcurrentHashMap<String, Request> current = new ConcurrentHashMap<>();
+  private final AtomicLong sequence = new AtomicLong();
+
+  public Request begin(String sessionId) {
+    Request request = new Request(sessionId, sequence.incrementAndGet());
+    Request superseded = current.put(sessionId, request);
+
+    if (superseded != null) {
+      log.debug("request {} of session {} superseded by {}", superseded.getSeq(), sessionId, request.getSeq());
+      superseded.cancel();
+    }
+    return request;
+  }
+
+  public void end(Request request) {
+    current.remove(request.getSessionId(), request);
+  }
+
+  public static class Request {
+    @Getter
+    private final String sessionId;
+    @Getter
+    private final long seq;
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private final List<Runnable> cancelHooks = new CopyOnWriteArrayList<>();
+
+    private Request(String sessionId, long seq) {
+      this.sessionId = sessionId;
+      this.seq = seq;
+    }
+
+    public boolean isCancelled() {
+      return cancelled.get();
+    }
+
+    /**
+     * Runs the hook when the request is cancelled, right away if it already is
+     */
+    public void onCancel(Runnable hook) {
+      cancelHooks.add(hook);
+      if (isCancelled() && cancelHooks.remove(hook)) {
+        hook.run();
+      }
+    }
+
+    public void removeOnCancel(Runnable hook) {
+      cancelHooks.remove(hook);
+    }
+
+    void cancel() {
+      if (cancelled.compareAndSet(false, true)) {
+        for (Runnable hook : cancelHooks) {
+          if (cancelHooks.remove(hook)) {
+            try {
+              hook.run();
+            } catch (Exception e) {
+              log.error("Cancel hook of session {} failed", sessionId, e);
+            }
+          }
+        }
+      }
+    }
+  }
+}
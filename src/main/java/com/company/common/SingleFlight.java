@@ -0,0 +1,79 @@
+package com.company.common;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces identical concurrent calls: the first caller of a key runs the call on its own thread,
+ * callers arriving while it is in flight wait for and share its result (or failure). A leader that
+ * gives up on its call throws CancellationException, which the waiting callers may retry on.
+ *
+ * @param <K> call key, e.g. a query fingerprint
+ * @param <V> call result
+ */
+public class SingleFlight<K, V> {
+
+  private final ConcurrentHashMap<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+
+  public V execute(K key, Supplier<V> call) {
+    Flight<V> flight = new Flight<>();
+    Flight<V> running = inFlight.putIfAbsent(key, flight);
+
+    if (running != null) {
+      return this.await(key, running);
+    }
+
+    try {
+      V value = call.get();
+      flight.result.complete(value);
+      return value;
+    } catch (RuntimeException | Error e) {
+      flight.result.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, flight);
+    }
+  }
+
+  public int inFlight() {
+    return inFlight.size();
+  }
+
+  /**
+   * Callers waiting for the in-flight call of the key, its leader should not abandon a call others wait for
+   */
+  public int waiters(K key) {
+    Flight<V> flight = inFlight.get(key);
+    return (flight != null) ? flight.waiters.get() : 0;
+  }
+
+  private V await(K key, Flight<V> running) {
+    running.waiters.incrementAndGet();
+    try {
+      return running.result.get();
+    } catch (InterruptedException e) {
+      // the waiter was cancelled, the shared call keeps running for the others
+      Thread.currentThread().interrupt();
+      throw new CancellationException("interrupted waiting for " + key);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      running.waiters.decrementAndGet();
+    }
+  }
+
+  private static class Flight<V> {
+    private final CompletableFuture<V> result = new CompletableFuture<>();
+    private final AtomicInteger waiters = new AtomicInteger();
+  }
+}
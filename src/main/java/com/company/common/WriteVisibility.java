@@ -0,0 +1,25 @@
+package com.company.common;
+
+import org.elasticsearch.action.support.WriteRequest;
+
+/**
+ * When a write becomes visible to searches, relative to the write call returning
+ */
+public enum WriteVisibility {
+  // returns once the write is acknowledged, visible after the next periodic refresh (index.refresh_interval)
+  FIRE_AND_FORGET(WriteRequest.RefreshPolicy.NONE),
+  // returns once a refresh made the write visible (refresh=wait_for)
+  WAIT_FOR_REFRESH(WriteRequest.RefreshPolicy.WAIT_UNTIL),
+  // returns once a refresh shared by the writes of the last few ms made the write visible
+  VISIBLE_WITHIN(WriteRequest.RefreshPolicy.NONE);
+
+  private final WriteRequest.RefreshPolicy refreshPolicy;
+
+  WriteVisibility(WriteRequest.RefreshPolicy refreshPolicy) {
+    this.refreshPolicy = refreshPolicy;
+  }
+
+  public WriteRequest.RefreshPolicy getRefreshPolicy() {
+    return refreshPolicy;
+  }
+}
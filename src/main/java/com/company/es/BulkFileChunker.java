@@ -0,0 +1,317 @@
+package com.company.es;
+
+import lombok.Getter;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Splits a large file of documents into bulk request bodies through memory-mapped windows, finding
+ * document boundaries by scanning bytes (newlines, or bracket depth outside strings for a JSON
+ * array) without parsing the documents, then copying each document from the window in one piece.
+ * Supported formats:
+ * - BULK: a _bulk body, action lines followed by source lines (test-data.json)
+ * - NDJSON: one document per line
+ * - JSON_ARRAY: a top level array of documents, possibly pretty-printed (article-data.json)
+ *
+ * Each chunk ends at a document boundary and knows its end offset in the file, so a load can
+ * resume from the end offset of the last chunk committed.
+ */
+public class BulkFileChunker implements Closeable {
+
+  public enum Format { BULK, NDJSON, JSON_ARRAY }
+
+  private static final long WINDOW_BYTES = 256L * 1024 * 1024;
+  private static final byte[] INDEX_ACTION = "{\"index\":{}}\n".getBytes(StandardCharsets.UTF_8);
+  private static final Set<String> ACTIONS = new HashSet<>(Arrays.asList("index", "create", "update", "delete"));
+
+  private final FileChannel channel;
+  private final long size;
+  private final int bulkBytes;
+  @Getter
+  private final Format format;
+
+  private final Body actionLine = new Body(256);
+  private MappedByteBuffer window;
+  private long windowStart;
+  private long position;
+
+  /**
+   * @param startOffset a document boundary, 0 or the end offset of a chunk of an earlier load
+   */
+  public BulkFileChunker(Path file, long startOffset, int bulkBytes) throws IOException {
+    this.channel = FileChannel.open(file, StandardOpenOption.READ);
+    this.size = channel.size();
+    this.bulkBytes = bulkBytes;
+    this.position = 0;
+    this.format = this.detectFormat();
+
+    if (startOffset > 0) {
+      this.position = startOffset;
+    } else if (format == Format.JSON_ARRAY) {
+      // past the opening bracket
+      this.position = this.skipWhitespace(0) + 1;
+    }
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  /**
+   * The next bulk body of about bulkBytes, null at the end of the file
+   */
+  public Chunk next() throws IOException {
+    Body body = new Body(bulkBytes + bulkBytes / 4);
+    int docs = 0;
+
+    while (body.size < bulkBytes) {
+      boolean added;
+      if (format == Format.JSON_ARRAY) {
+        added = this.nextArrayElement(body);
+      } else if (format == Format.NDJSON) {
+        added = this.nextLine(body, true);
+      } else {
+        added = this.nextBulkItem(body);
+      }
+      if (!added) {
+        break;
+      }
+      docs++;
+    }
+
+    return (docs == 0) ? null : new Chunk(Arrays.copyOf(body.bytes, body.size), docs, position);
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private Format detectFormat() throws IOException {
+    long start = this.skipWhitespace(0);
+    if (start >= size) {
+      return Format.NDJSON;
+    }
+    if (this.byteAt(start) == '[') {
+      return Format.JSON_ARRAY;
+    }
+
+    // the first line is an action line in a _bulk body, only that line is parsed
+    long end = start;
+    while (end < size && this.byteAt(end) != '\n') {
+      end++;
+    }
+    Body firstLine = new Body((int) (end - start));
+    this.copy(start, end, firstLine);
+    Object parsed = JSONValue.parse(firstLine.toString());
+    if (parsed instanceof JSONObject && ((JSONObject) parsed).size() == 1 && ACTIONS.contains(((JSONObject) parsed).keySet().iterator().next())) {
+      return Format.BULK;
+    }
+    return Format.NDJSON;
+  }
+
+  /**
+   * Copies the next non-blank line, with a default index action in front if withAction
+   */
+  private boolean nextLine(Body body, boolean withAction) throws IOException {
+    position = this.skipWhitespace(position);
+    if (position >= size) {
+      return false;
+    }
+
+    long start = position;
+    long end = start;
+    while (end < size && this.byteAt(end) != '\n') {
+      end++;
+    }
+    position = Math.min(end + 1, size);
+    if (end > start && this.byteAt(end - 1) == '\r') {
+      end--;
+    }
+
+    if (withAction) {
+      body.write(INDEX_ACTION);
+    }
+    this.copy(start, end, body);
+    body.write((byte) '\n');
+    return true;
+  }
+
+  private boolean nextBulkItem(Body body) throws IOException {
+    actionLine.size = 0;
+    if (!this.nextLine(actionLine, false)) {
+      return false;
+    }
+    body.write(actionLine.bytes, actionLine.size);
+
+    // delete is the only action without a source line, action lines are small enough to parse
+    Object parsed = JSONValue.parse(actionLine.toString());
+    if (!(parsed instanceof JSONObject) || !((JSONObject) parsed).containsKey("delete")) {
+      this.nextLine(body, false);
+    }
+    return true;
+  }
+
+  /**
+   * Copies the next element of the array on one line, ends at the closing bracket
+   */
+  private boolean nextArrayElement(Body body) throws IOException {
+    byte b = 0;
+    while (position < size) {
+      b = this.byteAt(position);
+      if (b != ',' && !isWhitespace(b)) {
+        break;
+      }
+      position++;
+    }
+    if (position >= size || b == ']') {
+      position = size;
+      return false;
+    }
+    if (b != '{') {
+      throw new IOException("array element at offset " + position + " is not an object");
+    }
+
+    long start = position;
+    int depth = 0;
+    boolean inString = false;
+    boolean escaped = false;
+    do {
+      b = this.byteAt(position++);
+      if (inString) {
+        if (escaped) {
+          escaped = false;
+        } else if (b == '\\') {
+          escaped = true;
+        } else if (b == '"') {
+          inString = false;
+        }
+      } else if (b == '"') {
+        inString = true;
+      } else if (b == '{' || b == '[') {
+        depth++;
+      } else if (b == '}' || b == ']') {
+        depth--;
+      }
+    } while (depth > 0 && position < size);
+
+    if (depth > 0) {
+      throw new IOException("unterminated array element at end of file");
+    }
+
+    body.write(INDEX_ACTION);
+    int from = body.size;
+    this.copy(start, position, body);
+    // raw newlines can only be formatting outside strings, a bulk source must be on one line
+    for (int i = from; i < body.size; i++) {
+      if (body.bytes[i] == '\n' || body.bytes[i] == '\r') {
+        body.bytes[i] = ' ';
+      }
+    }
+    body.write((byte) '\n');
+    return true;
+  }
+
+  private long skipWhitespace(long offset) throws IOException {
+    while (offset < size && isWhitespace(this.byteAt(offset))) {
+      offset++;
+    }
+    return offset;
+  }
+
+  private byte byteAt(long offset) throws IOException {
+    return this.windowAt(offset).get((int) (offset - windowStart));
+  }
+
+  /**
+   * Copies the bytes from start to end of the file, a slice of a window at a time
+   */
+  private void copy(long start, long end, Body body) throws IOException {
+    body.ensureCapacity(body.size + (int) (end - start));
+    while (start < end) {
+      ByteBuffer slice = this.windowAt(start).duplicate();
+      slice.position((int) (start - windowStart));
+      int length = (int) Math.min(end - start, slice.remaining());
+      slice.get(body.bytes, body.size, length);
+      body.size += length;
+      start += length;
+    }
+  }
+
+  private MappedByteBuffer windowAt(long offset) throws IOException {
+    if (window == null || offset < windowStart || offset >= windowStart + window.limit()) {
+      windowStart = offset;
+      window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(WINDOW_BYTES, size - offset));
+    }
+    return window;
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+  }
+
+  /**
+   * Growable body buffer, unlike ByteArrayOutputStream not synchronized and filled straight from
+   * the mapped window
+   */
+  private static class Body {
+    private byte[] bytes;
+    private int size;
+
+    Body(int capacity) {
+      this.bytes = new byte[Math.max(16, capacity)];
+    }
+
+    void ensureCapacity(int capacity) {
+      if (capacity > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(capacity, 2 * bytes.length));
+      }
+    }
+
+    void write(byte[] src) {
+      this.write(src, src.length);
+    }
+
+    void write(byte[] src, int length) {
+      this.ensureCapacity(size + length);
+      System.arraycopy(src, 0, bytes, size, length);
+      size += length;
+    }
+
+    void write(byte b) {
+      this.ensureCapacity(size + 1);
+      bytes[size++] = b;
+    }
+
+    @Override
+    public String toString() {
+      return new String(bytes, 0, size, StandardCharsets.UTF_8);
+    }
+  }
+
+  @Getter
+  public static class Chunk {
+    private final byte[] body;
+    private final int docs;
+    // file offset right after the last document of the chunk
+    private final long endOffset;
+
+    Chunk(byte[] body, int docs, long endOffset) {
+      this.body = body;
+      this.docs = docs;
+      this.endOffset = endOffset;
+    }
+  }
+}
@@ -1,77 +1,325 @@
 package com.company.es;
 
+import com.company.common.ChangeFeedCursor;
+import com.company.common.ChangeFeedPage;
+import com.company.common.FieldsDocument;
 import com.company.common.ISearch;
+import com.company.common.QueryProfile;
+import com.company.common.Ranking;
 import com.company.common.SearchQuery;
 import com.company.common.SearchQueryClause;
 import com.company.common.SearchResult;
+import com.company.common.SessionRequestTracker;
+import com.company.common.WriteVisibility;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteResponse;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.admin.indices.stats.ShardStats;
+import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.admin.cluster.node.tasks.list.ListTasksResponse;
 import org.elasticsearch.action.index.IndexResponse;
-import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchAction;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.update.UpdateRequestBuilder;
+import org.elasticsearch.action.update.UpdateResponse;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.document.DocumentField;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.transport.TransportAddress;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.ToXContentObject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.InnerHitBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.reindex.BulkByScrollResponse;
 import org.elasticsearch.index.reindex.DeleteByQueryAction;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.collapse.CollapseBuilder;
+import org.elasticsearch.search.profile.ProfileResult;
+import org.elasticsearch.search.profile.ProfileShardResult;
+import org.elasticsearch.search.profile.query.QueryProfileShardResult;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.tasks.TaskInfo;
 import org.elasticsearch.transport.client.PreBuiltTransportClient;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 @Slf4j
 public class ESSearchImpl implements ISearch {
 
+  protected static final String COLLAPSE_INNER_HITS = "collapsed";
+  protected static final int UPDATE_BATCH_SIZE = 500;
+  // index.max_result_window default, from + size can't exceed it
+  protected static final int MAX_RESULT_WINDOW = 10000;
+  protected static final int RETRY_ON_CONFLICT = 3;
+  // numeric fields may have been ingested as strings, e.g. "in_stock":"2"
+  protected static final String INCREMENT_SCRIPT =
+    "for (entry in params.deltas.entrySet()) {" +
+    "  def value = ctx._source[entry.getKey()];" +
+    "  if (value == null) { value = 0L; } else if (value instanceof String) { value = Long.parseLong(value); }" +
+    "  ctx._source[entry.getKey()] = value + entry.getValue();" +
+    "}" +
+    "if (ctx._source.rank instanceof Map && params.deltas.containsKey('sold')) {" +
+    "  ctx._source.rank.popularity = Math.max(0, ctx._source.sold) + 1;" +
+    "}";
+
   protected String hostname;
   protected int port = 9300;
   protected String clusterName;
   protected List<String> indexes = new ArrayList();
   protected Client client;
+  protected QueryPlanner queryPlanner;
+  protected ResultEnricher resultEnricher;
+  protected ProfileFilterLookups profileFilterLookups;
+  protected boolean rankFeatures;
+  // rank feature field type of the cluster, detected on first use
+  protected volatile String rankFeatureType;
+  protected SessionRequestTracker sessions = new SessionRequestTracker();
+  protected AtomicLong requestSequence = new AtomicLong();
+  protected XContentType sourceContentType = XContentType.JSON;
+  protected WriteVisibility writeVisibility = WriteVisibility.WAIT_FOR_REFRESH;
+  protected RefreshCoalescer refreshCoalescer;
+  protected List<IngestPipeline> pipelines = new CopyOnWriteArrayList<>();
+  protected ExecutorService publisherExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("search-publisher-%d").build());
 
   public ESSearchImpl(String hostname, int port, String clusterName, List<String> indexes) {
+    this(hostname, port, clusterName, indexes, false);
+  }
+
+  /**
+   * @param compress compress requests sent to the cluster (transport.compress), trades client and
+   * node CPU for bandwidth on heavy ingest
+   */
+  public ESSearchImpl(String hostname, int port, String clusterName, List<String> indexes, boolean compress) {
     this.hostname = hostname;
     this.port = port;
     this.clusterName = clusterName;
     this.indexes = indexes;
 
     Settings settings = Settings.builder()
-      .put("cluster.name", clusterName).build();
+      .put("cluster.name", clusterName)
+      .put("transport.compress", compress).build();
 
     this.client = new PreBuiltTransportClient(settings)
       .addTransportAddress(new TransportAddress(new InetSocketAddress(hostname, port)));
+    this.resultEnricher = new ResultEnricher(client);
+    this.profileFilterLookups = new ProfileFilterLookups(client);
+    this.refreshCoalescer = new RefreshCoalescer(client);
+  }
+
+  /**
+   * Encoding of typed documents sent by ingest(ToXContentObject), JSON by default. SMILE and CBOR
+   * are binary and cheaper to write and parse.
+   */
+  public void setSourceContentType(XContentType sourceContentType) {
+    if (sourceContentType != XContentType.JSON && sourceContentType != XContentType.SMILE && sourceContentType != XContentType.CBOR) {
+      throw new IllegalArgumentException("unsupported source content type " + sourceContentType);
+    }
+    this.sourceContentType = sourceContentType;
+  }
+
+  /**
+   * Visibility of ingests and deletes, WAIT_FOR_REFRESH by default
+   */
+  public void setWriteVisibility(WriteVisibility writeVisibility) {
+    this.writeVisibility = writeVisibility;
+  }
+
+  /**
+   * Longest wait for a shared refresh with VISIBLE_WITHIN, RefreshCoalescer.DEFAULT_INTERVAL_MILLIS
+   * by default. Longer intervals make fewer and larger segments.
+   */
+  public void setVisibleWithinMillis(long visibleWithinMillis) {
+    refreshCoalescer.setIntervalMillis(visibleWithinMillis);
+  }
+
+  /**
+   * Reorder and rewrite query clauses by their selectivity in the first index
+   */
+  public void enableQueryPlanner() {
+    if (queryPlanner == null) {
+      queryPlanner = new QueryPlanner(client, indexes.get(0));
+    }
+  }
+
+  /**
+   * Maintain popularity and recency rank features of documents ingested or updated from now on,
+   * needed by searches with Ranking.POPULARITY. Needs ES 6.5 or later.
+   */
+  public void enableRankFeatures() {
+    RankFeatures.putMapping(client, indexes.get(0), this.rankFeatureType());
+    rankFeatures = true;
   }
 
   @Override
   public void search(SearchQuery searchQuery, Consumer<SearchResult> consumer) {
-    BoolQueryBuilder query = this.createBoolQuery(searchQuery);
-    String indexName = indexes.get(0);
+    if (searchQuery.getSessionId() != null) {
+      this.searchInSession(searchQuery, consumer);
+      return;
+    }
 
-    SearchHit[] hits = client.prepareSearch(indexName).setQuery(query).execute().actionGet().getHits().getHits();
+    SearchResponse response = this.prepareSearch(searchQuery).execute().actionGet();
+    this.toSearchResults(searchQuery, response).forEach(consumer);
+  }
 
-    if (hits != null) {
-      for (SearchHit hit : hits) {
-        SearchResult.SearchResultBuilder searchResult = SearchResult.builder();
+  /**
+   * Pages with search_after on (_score, _id), so paging is not bounded by the result window.
+   * Collapsed searches can't use search_after and page with from/size up to MAX_RESULT_WINDOW.
+   * The next page is fetched once half of the current one is consumed; it is cancelled if the
+   * consumer stops before it arrives.
+   */
+  @Override
+  public void searchWhile(SearchQuery searchQuery, Predicate<SearchResult> consumer) {
+    String opaqueId = "searchWhile/" + requestSequence.incrementAndGet();
+    Client pageClient = client.filterWithHeader(Collections.singletonMap(Task.X_OPAQUE_ID, opaqueId));
+    int pageSize = searchQuery.getPageSize();
+    boolean searchAfter = !searchQuery.isCollapsed();
+    int from = 0;
+
+    ActionFuture<SearchResponse> page = this.preparePage(searchQuery, pageClient, searchAfter, from, null).execute();
+    while (page != null) {
+      SearchResponse response = page.actionGet();
+      SearchHit[] hits = response.getHits().getHits();
+      List<SearchResult> searchResults = this.toSearchResults(searchQuery, response);
+      from += pageSize;
 
-        searchResult.contentId(hit.getId());
-        searchResult.indexId(hit.getIndex());
-        searchResult.type(hit.getType());
-        searchResult.score(hit.getScore());
-        searchResult.sourceAsString(hit.getSourceAsString());
+      boolean hasNext = hits.length == pageSize && (searchAfter || from + pageSize <= MAX_RESULT_WINDOW);
+      Object[] lastSortValues = (hits.length > 0) ? hits[hits.length - 1].getSortValues() : null;
+      ActionFuture<SearchResponse> next = null;
 
-        consumer.accept(searchResult.build());
+      for (int i = 0; i < searchResults.size(); i++) {
+        if (hasNext && next == null && i >= searchResults.size() / 2) {
+          next = this.preparePage(searchQuery, pageClient, searchAfter, from, lastSortValues).execute();
+        }
+        if (!consumer.test(searchResults.get(i))) {
+          if (next != null && !next.isDone()) {
+            next.cancel(true);
+            this.cancelTasks(opaqueId);
+          }
+          return;
+        }
       }
+      page = next;
     }
   }
 
+  private SearchRequestBuilder preparePage(SearchQuery searchQuery, Client pageClient, boolean searchAfter, int from, Object[] lastSortValues) {
+    SearchRequestBuilder request = this.prepareSearch(searchQuery, pageClient);
+    if (!searchAfter) {
+      return request.setFrom(from);
+    }
+
+    // _id breaks score ties so every hit has a unique position to resume after
+    request.addSort(SortBuilders.scoreSort()).addSort(SortBuilders.fieldSort("_id").order(SortOrder.ASC));
+    if (lastSortValues != null) {
+      request.searchAfter(lastSortValues);
+    }
+    return request;
+  }
+
+  @Override
+  public Flow.Publisher<SearchResult> publish(SearchQuery searchQuery) {
+    return new SearchResultPublisher(
+      from -> this.prepareSearch(searchQuery).setFrom(from),
+      response -> this.toSearchResults(searchQuery, response),
+      searchQuery.getPageSize(),
+      MAX_RESULT_WINDOW,
+      publisherExecutor);
+  }
+
+  /**
+   * Runs the search as the latest request of its session. A newer search of the session
+   * cancels this one's ES tasks and its results are dropped. A session request begun upstream
+   * is used as is, it is cancelled by the newer request of that session.
+   */
+  private void searchInSession(SearchQuery searchQuery, Consumer<SearchResult> consumer) {
+    boolean upstream = (searchQuery.getSessionRequest() != null);
+    SessionRequestTracker.Request request = upstream ? searchQuery.getSessionRequest() : sessions.begin(searchQuery.getSessionId());
+    String opaqueId = request.getSessionId() + "/" + request.getSeq() + "/" + requestSequence.incrementAndGet();
+    Runnable cancelSearch = null;
+
+    try {
+      ActionFuture<SearchResponse> future = this.prepareSearch(searchQuery, client.filterWithHeader(Collections.singletonMap(Task.X_OPAQUE_ID, opaqueId))).execute();
+      cancelSearch = () -> {
+        future.cancel(true);
+        this.cancelTasks(opaqueId);
+      };
+      request.onCancel(cancelSearch);
+
+      SearchResponse response = future.actionGet();
+      List<SearchResult> searchResults = this.toSearchResults(searchQuery, response);
+      if (request.isCancelled()) {
+        log.debug("dropping results of superseded search {}", opaqueId);
+        return;
+      }
+      searchResults.forEach(consumer);
+    } catch (CancellationException e) {
+      log.debug("superseded search {} cancelled", opaqueId);
+    } finally {
+      if (upstream) {
+        // the request outlives this search, e.g. several searches of one query
+        if (cancelSearch != null) {
+          request.removeOnCancel(cancelSearch);
+        }
+      } else {
+        sessions.end(request);
+      }
+    }
+  }
+
+  private void cancelTasks(String opaqueId) {
+    client.admin().cluster().prepareListTasks()
+      .setActions(SearchAction.NAME + "*")
+      .setDetailed(true)
+      .execute(ActionListener.wrap((ListTasksResponse response) -> {
+        for (TaskInfo task : response.getTasks()) {
+          if (opaqueId.equals(task.getHeaders().get(Task.X_OPAQUE_ID)) && task.isCancellable() && !task.getParentTaskId().isSet()) {
+            client.admin().cluster().prepareCancelTasks().setTaskId(task.getTaskId()).execute(ActionListener.wrap(
+              cancelled -> log.debug("cancelled task {} of {}", task.getTaskId(), opaqueId),
+              e -> log.debug("Failed to cancel task {} of {}", task.getTaskId(), opaqueId, e)));
+          }
+        }
+      }, e -> log.error("Failed to list tasks of {}", opaqueId, e)));
+  }
+
   @Override
   public long count(SearchQuery searchQuery) {
     BoolQueryBuilder query = this.createBoolQuery(searchQuery);
@@ -99,22 +347,190 @@ public class ESSearchImpl implements ISearch {
     }
   }
 
+  /**
+   * Documents indexed or updated since the cursor, read per shard in _seq_no order up to the
+   * shard's global checkpoint, so no lower _seq_no can become visible after the cursor passed it.
+   * Deleted documents are not part of the feed.
+   */
+  @Override
+  public ChangeFeedPage changes(String indexName, ChangeFeedCursor cursor, int batchSize) {
+    Map<Integer, Long> globalCheckpoints = new TreeMap<>();
+    for (ShardStats shardStats : client.admin().indices().prepareStats(indexName).clear().get().getShards()) {
+      if (shardStats.getShardRouting().primary() && shardStats.getSeqNoStats() != null) {
+        globalCheckpoints.put(shardStats.getShardRouting().shardId().id(), shardStats.getSeqNoStats().getGlobalCheckpoint());
+      }
+    }
+    // operations up to the global checkpoint are processed, make them visible to search. Polls and
+    // writes waiting for visibility share one refresh per interval instead of a refresh per poll.
+    refreshCoalescer.awaitRefresh(indexName);
+
+    ChangeFeedPage.ChangeFeedPageBuilder page = ChangeFeedPage.builder();
+    ChangeFeedCursor next = cursor;
+    boolean hasMore = false;
+    int remaining = batchSize;
+
+    for (Map.Entry<Integer, Long> entry : globalCheckpoints.entrySet()) {
+      int shard = entry.getKey();
+      long from = cursor.getCheckpoint(shard);
+      if (from >= entry.getValue()) {
+        continue;
+      }
+      if (remaining == 0) {
+        hasMore = true;
+        break;
+      }
+
+      SearchHit[] hits = client.prepareSearch(indexName)
+        .setPreference("_shards:" + shard)
+        .setQuery(QueryBuilders.rangeQuery("_seq_no").gt(from).lte(entry.getValue()))
+        .addSort(SortBuilders.fieldSort("_seq_no").order(SortOrder.ASC))
+        .seqNoAndPrimaryTerm(true)
+        .setSize(remaining)
+        .get().getHits().getHits();
+
+      for (SearchHit hit : hits) {
+        SearchResult searchResult = this.toSearchResult(hit, null);
+        searchResult.setSeqNo(hit.getSeqNo());
+        searchResult.setPrimaryTerm(hit.getPrimaryTerm());
+
+        page.result(searchResult);
+        next = next.advance(shard, hit.getSeqNo());
+      }
+
+      if (hits.length == remaining) {
+        // the shard may have more changes than fit in this batch
+        hasMore = true;
+      } else {
+        next = next.advance(shard, entry.getValue());
+      }
+      remaining -= hits.length;
+    }
+
+    return page.next(next).hasMore(hasMore).build();
+  }
+
   @Override
   public IndexResponse ingest(String indexName, String type, String doc) {
-    return client.prepareIndex(indexName, type).setSource(doc, XContentType.JSON).setRefreshPolicy(WriteRequest.RefreshPolicy.WAIT_UNTIL).get();
+    IndexResponse response = client.prepareIndex(indexName, type).setSource(this.withRankFeatures(doc), XContentType.JSON).setRefreshPolicy(writeVisibility.getRefreshPolicy()).get();
+    refreshCoalescer.afterWrite(indexName, writeVisibility);
+
+    return response;
   }
 
   @Override
   public BulkResponse ingest(String indexName, String type, List<String> docs) {
     BulkRequestBuilder bulkRequest = client.prepareBulk();
-    docs.forEach(doc -> bulkRequest.add(client.prepareIndex(indexName, type).setSource(doc, XContentType.JSON)).get());
+    docs.forEach(doc -> bulkRequest.add(client.prepareIndex(indexName, type).setSource(this.withRankFeatures(doc), XContentType.JSON)));
+
+    BulkResponse response = bulkRequest.setRefreshPolicy(writeVisibility.getRefreshPolicy()).get();
+    refreshCoalescer.afterWrite(indexName, writeVisibility);
+
+    return response;
+  }
+
+  @Override
+  public IndexResponse ingest(String indexName, String type, ToXContentObject doc) {
+    IndexResponse response = client.prepareIndex(indexName, type).setSource(this.toSource(doc)).setRefreshPolicy(writeVisibility.getRefreshPolicy()).get();
+    refreshCoalescer.afterWrite(indexName, writeVisibility);
+
+    return response;
+  }
+
+  @Override
+  public BulkResponse ingestObjects(String indexName, String type, List<? extends ToXContentObject> docs) {
+    BulkRequestBuilder bulkRequest = client.prepareBulk();
+    docs.forEach(doc -> bulkRequest.add(client.prepareIndex(indexName, type).setSource(this.toSource(doc))));
 
-    return bulkRequest.setRefreshPolicy(WriteRequest.RefreshPolicy.WAIT_UNTIL).get();
+    BulkResponse response = bulkRequest.setRefreshPolicy(writeVisibility.getRefreshPolicy()).get();
+    refreshCoalescer.afterWrite(indexName, writeVisibility);
+
+    return response;
+  }
+
+  /**
+   * Indexes the documents under their ids in bulk batches of UPDATE_BATCH_SIZE
+   */
+  @Override
+  public BulkResponse index(String indexName, String type, Map<String, String> docs) {
+    List<DocWriteRequest<?>> requests = new ArrayList<>();
+    docs.forEach((id, doc) -> requests.add(client.prepareIndex(indexName, type, id).setSource(this.withRankFeatures(doc), XContentType.JSON).request()));
+
+    return this.bulkWrite(indexName, requests);
+  }
+
+  /**
+   * Asynchronous bulk ingestion for large loads, documents get the same rank features as ingest().
+   * Pipelines still open are flushed and closed by destroy().
+   */
+  public IngestPipeline openPipeline(IngestPipeline.Options options) {
+    IngestPipeline pipeline = new IngestPipeline(client, options, this::withRankFeatures) {
+      @Override
+      public boolean close(long timeout, TimeUnit unit) {
+        pipelines.remove(this);
+        return super.close(timeout, unit);
+      }
+    };
+    pipelines.add(pipeline);
+
+    return pipeline;
+  }
+
+  @Override
+  public UpdateResponse update(String indexName, String id, String partialDoc) {
+    UpdateResponse response = this.prepareUpdate(indexName, id, partialDoc).get();
+
+    return response;
+  }
+
+  @Override
+  public UpdateResponse upsert(String indexName, String id, String partialDoc) {
+    UpdateResponse response = this.prepareUpdate(indexName, id, partialDoc).setDocAsUpsert(true).get();
+
+    return response;
+  }
+
+  /**
+   * Sends the partial documents (id to changed fields) in bulk batches of UPDATE_BATCH_SIZE
+   */
+  @Override
+  public BulkResponse update(String indexName, Map<String, String> partialDocs) {
+    List<UpdateRequestBuilder> updates = new ArrayList<>();
+    partialDocs.forEach((id, partialDoc) -> updates.add(this.prepareUpdate(indexName, id, partialDoc)));
+
+    return this.bulkUpdate(updates);
+  }
+
+  /**
+   * Adds the deltas (id to field to delta) to numeric fields with a single inline script, compiled once by ES,
+   * in bulk batches of UPDATE_BATCH_SIZE. The documents of a batch that failed are failed items.
+   */
+  @Override
+  public BulkResponse increment(String indexName, Map<String, Map<String, Long>> deltas) {
+    List<UpdateRequestBuilder> updates = new ArrayList<>();
+    deltas.forEach((id, fields) -> {
+      Script script = new Script(ScriptType.INLINE, Script.DEFAULT_SCRIPT_LANG, INCREMENT_SCRIPT,
+        Collections.singletonMap("deltas", new HashMap<String, Object>(fields)));
+
+      updates.add(client.prepareUpdate(indexName, "default", id).setScript(script).setRetryOnConflict(RETRY_ON_CONFLICT));
+    });
+
+    return this.bulkUpdate(updates);
   }
 
   @Override
   public DeleteResponse delete(String indexName, String id) {
-    return client.prepareDelete(indexName, "default", id).get();
+    DeleteResponse response = client.prepareDelete(indexName, "default", id).setRefreshPolicy(writeVisibility.getRefreshPolicy()).get();
+    refreshCoalescer.afterWrite(indexName, writeVisibility);
+
+    return response;
+  }
+
+  @Override
+  public BulkResponse delete(String indexName, String type, List<String> ids) {
+    List<DocWriteRequest<?>> requests = new ArrayList<>();
+    ids.forEach(id -> requests.add(client.prepareDelete(indexName, type, id).request()));
+
+    return this.bulkWrite(indexName, requests);
   }
 
   @Override
@@ -123,52 +539,346 @@ public class ESSearchImpl implements ISearch {
       DeleteByQueryAction.INSTANCE.newRequestBuilder(client)
         .filter(QueryBuilders.matchPhraseQuery("description", description))
         .source(indexName)
-        .refresh(true)
+        // delete by query can't wait for a refresh, it can only force one
+        .refresh(writeVisibility == WriteVisibility.WAIT_FOR_REFRESH)
         .get();
+    refreshCoalescer.afterWrite(indexName, writeVisibility);
 
     return response;
   }
 
+  /**
+   * Index and delete requests of the index, in bulk batches of UPDATE_BATCH_SIZE with the write visibility
+   */
+  private BulkResponse bulkWrite(String indexName, List<DocWriteRequest<?>> requests) {
+    List<BulkItemResponse> items = new ArrayList<>();
+    long tookInMillis = 0;
+
+    for (int from = 0; from < requests.size(); from += UPDATE_BATCH_SIZE) {
+      BulkRequestBuilder bulkRequest = client.prepareBulk().setRefreshPolicy(writeVisibility.getRefreshPolicy());
+      requests.subList(from, Math.min(from + UPDATE_BATCH_SIZE, requests.size())).forEach(request -> bulkRequest.request().add(request));
+
+      BulkResponse response = bulkRequest.get();
+      items.addAll(Arrays.asList(response.getItems()));
+      tookInMillis += response.getTook().millis();
+    }
+    refreshCoalescer.afterWrite(indexName, writeVisibility);
+
+    return new BulkResponse(items.toArray(new BulkItemResponse[0]), tookInMillis);
+  }
+
+  /**
+   * A batch that fails as a whole is reported as failed items with the status of the exception:
+   * rejected (429) and no node available (503) batches were not applied, timed out or disconnected
+   * ones (500) may have been. The batches after it are not sent and reported rejected (429).
+   */
+  private BulkResponse bulkUpdate(List<UpdateRequestBuilder> updates) {
+    List<BulkItemResponse> items = new ArrayList<>();
+    long tookInMillis = 0;
+    Exception notSent = null;
+
+    for (int from = 0; from < updates.size(); from += UPDATE_BATCH_SIZE) {
+      BulkRequestBuilder bulkRequest = client.prepareBulk();
+      updates.subList(from, Math.min(from + UPDATE_BATCH_SIZE, updates.size())).forEach(bulkRequest::add);
+
+      if (notSent != null) {
+        this.addFailures(items, bulkRequest, notSent);
+        continue;
+      }
+      try {
+        BulkResponse response = bulkRequest.get();
+        items.addAll(Arrays.asList(response.getItems()));
+        tookInMillis += response.getTook().millis();
+      } catch (Exception e) {
+        log.error("bulk update of {} documents failed", bulkRequest.numberOfActions(), e);
+        this.addFailures(items, bulkRequest, e);
+        notSent = new EsRejectedExecutionException("not sent, an earlier batch failed: " + e.getMessage());
+      }
+    }
+
+    return new BulkResponse(items.toArray(new BulkItemResponse[0]), tookInMillis);
+  }
+
+  private void addFailures(List<BulkItemResponse> items, BulkRequestBuilder bulkRequest, Exception failure) {
+    for (DocWriteRequest<?> request : bulkRequest.request().requests()) {
+      items.add(new BulkItemResponse(items.size(), request.opType(),
+        new BulkItemResponse.Failure(request.index(), request.type(), request.id(), failure)));
+    }
+  }
+
+  private UpdateRequestBuilder prepareUpdate(String indexName, String id, String partialDoc) {
+    return client.prepareUpdate(indexName, "default", id)
+      .setDoc(this.withRankFeatures(partialDoc), XContentType.JSON)
+      .setRetryOnConflict(RETRY_ON_CONFLICT);
+  }
+
+  private String rankFeatureType() {
+    if (rankFeatureType == null) {
+      rankFeatureType = RankFeatures.fieldType(client);
+    }
+    return rankFeatureType;
+  }
+
+  private String withRankFeatures(String doc) {
+    return rankFeatures ? RankFeatures.addFeatures(doc) : doc;
+  }
+
+  /**
+   * Writes the typed document in sourceContentType. With rank features enabled the features are
+   * added to the fields, which takes a round trip through a map for documents other than FieldsDocument.
+   */
+  private XContentBuilder toSource(ToXContentObject doc) {
+    try {
+      XContentBuilder builder = XContentFactory.contentBuilder(sourceContentType);
+      if (!rankFeatures) {
+        return doc.toXContent(builder, ToXContent.EMPTY_PARAMS);
+      }
+
+      Map<String, Object> source;
+      if (doc instanceof FieldsDocument) {
+        source = new HashMap<String, Object>(((FieldsDocument) doc).getFields());
+      } else {
+        XContentBuilder rendered = doc.toXContent(XContentFactory.contentBuilder(sourceContentType), ToXContent.EMPTY_PARAMS);
+        source = XContentHelper.convertToMap(BytesReference.bytes(rendered), true, sourceContentType).v2();
+      }
+      RankFeatures.addFeatures(source);
+      return builder.map(source);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private CollapseBuilder createCollapse(SearchQuery searchQuery) {
+    CollapseBuilder collapse = new CollapseBuilder(searchQuery.getCollapseField());
+
+    if (searchQuery.getCollapseInnerHits() > 0) {
+      collapse.setInnerHits(new InnerHitBuilder(COLLAPSE_INNER_HITS).setSize(searchQuery.getCollapseInnerHits()));
+    }
+    return collapse;
+  }
+
+  private SearchRequestBuilder prepareSearch(SearchQuery searchQuery) {
+    return this.prepareSearch(searchQuery, client);
+  }
+
+  private SearchRequestBuilder prepareSearch(SearchQuery searchQuery, Client client) {
+    BoolQueryBuilder query = this.createBoolQuery(searchQuery);
+    String indexName = indexes.get(0);
+
+    SearchRequestBuilder request = client.prepareSearch(indexName).setQuery(query).setSize(searchQuery.getPageSize());
+    if (searchQuery.isCollapsed()) {
+      request.setCollapse(this.createCollapse(searchQuery));
+    }
+
+    if (searchQuery.isDebugMode()) {
+      request.setProfile(true);
+    }
+
+    if (searchQuery.getRanking() == Ranking.POPULARITY && RankFeatures.skipsNonCompetitive(this.rankFeatureType())) {
+      // without exact total hits ES 7 can skip blocks that can't make the top hits. The total is
+      // then not reported; searches here only read the hits and page on their count.
+      request.setTrackTotalHits(false);
+    }
+    return request;
+  }
+
+  private List<SearchResult> toSearchResults(SearchQuery searchQuery, SearchResponse response) {
+    List<SearchResult> searchResults = new ArrayList<>();
+    SearchHit[] hits = response.getHits().getHits();
+    Map<String, QueryProfile> profiles = this.createProfiles(searchQuery, response);
+
+    if (hits != null) {
+      for (SearchHit hit : hits) {
+        SearchResult searchResult = this.toSearchResult(hit, searchQuery.getCollapseField());
+
+        if (searchQuery.isDebugMode()) {
+          // attach the timings of the shard that produced the hit, or all of them when unknown
+          QueryProfile shardProfile = (hit.getShard() != null) ? profiles.get(hit.getShard().toString()) : null;
+          searchResult.setProfiles(shardProfile != null ? Collections.singletonList(shardProfile) : new ArrayList<>(profiles.values()));
+        }
+        searchResults.add(searchResult);
+      }
+    }
+
+    if (searchQuery.getEnrichment() != null) {
+      resultEnricher.enrich(searchResults, searchQuery.getEnrichment());
+    }
+    return searchResults;
+  }
+
+  private Map<String, QueryProfile> createProfiles(SearchQuery searchQuery, SearchResponse response) {
+    Map<String, QueryProfile> profiles = new HashMap<>();
+
+    if (response.getProfileResults() == null) {
+      return profiles;
+    }
+
+    for (Map.Entry<String, ProfileShardResult> entry : response.getProfileResults().entrySet()) {
+      for (QueryProfileShardResult shardResult : entry.getValue().getQueryProfileResults()) {
+        QueryProfile.QueryProfileBuilder profile = QueryProfile.builder();
+
+        profile.shard(entry.getKey());
+        profile.rewriteTimeNanos(shardResult.getRewriteTime());
+        for (ProfileResult result : shardResult.getQueryResults()) {
+          profile.node(this.createProfileNode(result, searchQuery.getClauses(), 0, null));
+        }
+
+        QueryProfile queryProfile = profile.build();
+        log.debug("profile {}: rewrite {}ns, {} root nodes", queryProfile.getShard(), queryProfile.getRewriteTimeNanos(), queryProfile.getNodes().size());
+        profiles.put(entry.getKey(), queryProfile);
+      }
+    }
+    return profiles;
+  }
+
+  /**
+   * Children of the root bool query map back onto the SearchQueryClause they were built from
+   * by field name; their descendants inherit that clause.
+   */
+  private QueryProfile.Node createProfileNode(ProfileResult result, List<SearchQueryClause> clauses, int depth, SearchQueryClause clause) {
+    String description = result.getLuceneDescription();
+
+    if (clause == null && (depth == 1 || (depth == 0 && clauses.size() == 1))) {
+      clause = this.findClause(description, clauses);
+    }
+
+    QueryProfile.Node.NodeBuilder node = QueryProfile.Node.builder();
+    node.queryType(result.getQueryName());
+    node.description(description);
+    node.timeNanos(result.getTime());
+    node.breakdown(result.getTimeBreakdown());
+    node.clause(clause);
+
+    for (ProfileResult child : result.getProfiledChildren()) {
+      node.child(this.createProfileNode(child, clauses, depth + 1, clause));
+    }
+    return node.build();
+  }
+
+  private SearchQueryClause findClause(String luceneDescription, List<SearchQueryClause> clauses) {
+    if (luceneDescription == null) {
+      return null;
+    }
+
+    for (SearchQueryClause clause : clauses) {
+      if (clause.getType() == SearchQueryClause.ClauseType.ALL) {
+        if (luceneDescription.contains("*:*")) {
+          return clause;
+        }
+        continue;
+      }
+      for (String fieldName : clause.getFieldName().split(",")) {
+        if (luceneDescription.contains(fieldName.trim() + ":")) {
+          return clause;
+        }
+      }
+    }
+    return null;
+  }
+
+  private SearchResult toSearchResult(SearchHit hit, String collapseField) {
+    SearchResult.SearchResultBuilder searchResult = SearchResult.builder();
+
+    searchResult.contentId(hit.getId());
+    searchResult.indexId(hit.getIndex());
+    searchResult.type(hit.getType());
+    searchResult.score(hit.getScore());
+    searchResult.sourceAsString(hit.getSourceAsString());
+
+    if (collapseField != null) {
+      DocumentField collapseKey = hit.field(collapseField);
+      if (collapseKey != null && collapseKey.getValue() != null) {
+        searchResult.collapseKey(collapseKey.getValue().toString());
+      }
+
+      SearchHits innerHits = (hit.getInnerHits() != null) ? hit.getInnerHits().get(COLLAPSE_INNER_HITS) : null;
+      if (innerHits != null) {
+        List<SearchResult> group = new ArrayList<>();
+        for (SearchHit innerHit : innerHits.getHits()) {
+          group.add(this.toSearchResult(innerHit, null));
+        }
+        searchResult.innerHits(group);
+      }
+    }
+
+    return searchResult.build();
+  }
+
   private BoolQueryBuilder createBoolQuery(SearchQuery searchQuery) {
     BoolQueryBuilder rootQuery = QueryBuilders.boolQuery();
 
     if (searchQuery.getClauses().size() > 0) {
-      for (SearchQueryClause clause : searchQuery.getClauses()) {
-        SearchQueryClause.ClauseType clauseType = clause.getType();
-        String fieldName = clause.getFieldName();
-        String text = clause.getText();
-
-        if (clauseType == SearchQueryClause.ClauseType.ALL) {
-          QueryBuilder query = QueryBuilders.matchAllQuery();
-          rootQuery.must(query);
-        } else if (clauseType == SearchQueryClause.ClauseType.MATCH) {
-          QueryBuilder query = QueryBuilders.matchQuery(fieldName, text);
-          rootQuery.must(query);
-        } else if (clauseType == SearchQueryClause.ClauseType.MATCH_TERM) {
-          QueryBuilder query = QueryBuilders.termQuery(fieldName, text);
-          rootQuery.must(query);
-        } else if (clauseType == SearchQueryClause.ClauseType.MATCH_PHRASE) {
-          QueryBuilder query = QueryBuilders.matchPhraseQuery(fieldName, text);
-          rootQuery.must(query);
-        } else if (clauseType == SearchQueryClause.ClauseType.MULTI_MATCH) {
-          String[] fieldNames = fieldName.split(",");
-          QueryBuilder query = QueryBuilders.multiMatchQuery(text, fieldNames);
-          rootQuery.must(query);
-        } else {
-          throw new IllegalArgumentException("unknown search type");
-        }
+      QueryPlan plan = (queryPlanner != null) ? queryPlanner.plan(searchQuery) : QueryPlan.of(searchQuery.getClauses());
+
+      for (SearchQueryClause clause : plan.getScoringClauses()) {
+        rootQuery.must(createQuery(clause));
+      }
+      for (SearchQueryClause clause : plan.getFilterClauses()) {
+        rootQuery.filter(createQuery(clause));
       }
     } else {
       QueryBuilder query = QueryBuilders.matchAllQuery();
       rootQuery.must(query);
     }
+
+    searchQuery.getProfileFilters().forEach((filter, values) ->
+      profileFilterLookups.filter(filter, values).ifPresent(rootQuery::filter));
+
+    if (searchQuery.getRanking() == Ranking.POPULARITY) {
+      for (QueryBuilder query : RankFeatures.queries(this.rankFeatureType())) {
+        rootQuery.should(query);
+      }
+      // rank features only add to the score, they never restrict the matches
+      rootQuery.minimumShouldMatch(0);
+    }
     System.out.println(rootQuery.toString());
 
     return rootQuery;
   }
 
+  static QueryBuilder createQuery(SearchQueryClause clause) {
+    SearchQueryClause.ClauseType clauseType = clause.getType();
+    String fieldName = clause.getFieldName();
+    String text = clause.getText();
+
+    if (clauseType == SearchQueryClause.ClauseType.ALL) {
+      return QueryBuilders.matchAllQuery();
+    } else if (clauseType == SearchQueryClause.ClauseType.MATCH) {
+      return QueryBuilders.matchQuery(fieldName, text);
+    } else if (clauseType == SearchQueryClause.ClauseType.MATCH_TERM) {
+      return QueryBuilders.termQuery(fieldName, text);
+    } else if (clauseType == SearchQueryClause.ClauseType.MATCH_PHRASE) {
+      return QueryBuilders.matchPhraseQuery(fieldName, text);
+    } else if (clauseType == SearchQueryClause.ClauseType.MULTI_MATCH) {
+      String[] fieldNames = fieldName.split(",");
+      return QueryBuilders.multiMatchQuery(text, fieldNames);
+    } else if (clauseType == SearchQueryClause.ClauseType.RANGE) {
+      return QueryBuilders.rangeQuery(fieldName)
+        .from(clause.getFrom(), clause.isIncludeLower())
+        .to(clause.getTo(), clause.isIncludeUpper());
+    } else if (clauseType == SearchQueryClause.ClauseType.TERMS) {
+      return QueryBuilders.termsQuery(fieldName, clause.getValues());
+    } else if (clauseType == SearchQueryClause.ClauseType.EXISTS) {
+      return QueryBuilders.existsQuery(fieldName);
+    } else if (clauseType == SearchQueryClause.ClauseType.PREFIX) {
+      return QueryBuilders.prefixQuery(fieldName, text);
+    } else {
+      throw new IllegalArgumentException("unknown search type");
+    }
+  }
+
   @Override
   public void destroy() {
+    for (IngestPipeline pipeline : pipelines) {
+      if (!pipeline.close(1, TimeUnit.MINUTES)) {
+        log.warn("ingest pipeline still had bulk requests in flight at shutdown");
+      }
+    }
+    publisherExecutor.shutdown();
+    refreshCoalescer.destroy();
+    if (queryPlanner != null) {
+      queryPlanner.destroy();
+    }
     if (client != null) {
       client.close();
     }
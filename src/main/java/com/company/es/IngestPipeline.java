@@ -0,0 +1,188 @@
+package com.company.es;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * Asynchronous bulk indexing: documents are buffered and sent as a bulk request once
+ * bulkActions documents or bulkSize bytes are buffered or flushInterval has passed, with up to
+ * concurrentRequests bulk requests in flight. Bulks rejected by a full write queue are retried
+ * with exponential backoff. Each document can carry a listener told about its own outcome.
+ */
+@Slf4j
+public class IngestPipeline {
+
+  public interface ItemListener {
+    void onSuccess(DocWriteRequest<?> request, BulkItemResponse response);
+
+    void onFailure(DocWriteRequest<?> request, Exception failure);
+  }
+
+  @Getter
+  @Builder
+  public static class Options {
+    @Builder.Default
+    private int bulkActions = 1000;
+    @Builder.Default
+    private ByteSizeValue bulkSize = new ByteSizeValue(5, ByteSizeUnit.MB);
+    @Builder.Default
+    private TimeValue flushInterval = TimeValue.timeValueSeconds(1);
+    // bulk requests sent while the next one is being filled, 0 sends synchronously on add
+    @Builder.Default
+    private int concurrentRequests = 2;
+    @Builder.Default
+    private TimeValue initialBackoff = TimeValue.timeValueMillis(100);
+    @Builder.Default
+    private int maxRetries = 5;
+    // pipeline-wide listener, in addition to the listener of each document
+    private ItemListener listener;
+  }
+
+  private final Client client;
+  private final Options options;
+  private final UnaryOperator<String> sourceTransform;
+  private final BulkProcessor processor;
+  private final Map<DocWriteRequest<?>, ItemListener> listeners = Collections.synchronizedMap(new IdentityHashMap<>());
+
+  @Getter
+  private final LongAdder succeeded = new LongAdder();
+  @Getter
+  private final LongAdder failed = new LongAdder();
+
+  public IngestPipeline(Client client, Options options) {
+    this(client, options, UnaryOperator.identity());
+  }
+
+  /**
+   * @param sourceTransform applied to each JSON document given to index()
+   */
+  public IngestPipeline(Client client, Options options, UnaryOperator<String> sourceTransform) {
+    this.client = client;
+    this.options = options;
+    this.sourceTransform = sourceTransform;
+    this.processor = BulkProcessor.builder(client::bulk, new BulkListener())
+      .setBulkActions(options.getBulkActions())
+      .setBulkSize(options.getBulkSize())
+      .setFlushInterval(options.getFlushInterval())
+      .setConcurrentRequests(options.getConcurrentRequests())
+      .setBackoffPolicy(BackoffPolicy.exponentialBackoff(options.getInitialBackoff(), options.getMaxRetries()))
+      .build();
+  }
+
+  public void index(String indexName, String type, String doc) {
+    this.index(indexName, type, doc, null);
+  }
+
+  public void index(String indexName, String type, String doc, ItemListener listener) {
+    this.add(client.prepareIndex(indexName, type).setSource(sourceTransform.apply(doc), XContentType.JSON).request(), listener);
+  }
+
+  public void add(DocWriteRequest<?> request, ItemListener listener) {
+    if (listener != null) {
+      listeners.put(request, listener);
+    }
+    processor.add(request);
+  }
+
+  public void add(IndexRequest request) {
+    this.add(request, null);
+  }
+
+  /**
+   * Sends the buffered documents now, without waiting for the response
+   */
+  public void flush() {
+    processor.flush();
+  }
+
+  /**
+   * Sends the buffered documents and waits up to the timeout for all bulk requests in flight
+   *
+   * @return false if requests were still in flight at the timeout
+   */
+  public boolean close(long timeout, TimeUnit unit) {
+    try {
+      boolean closed = processor.awaitClose(timeout, unit);
+      log.info("ingest pipeline closed, {} documents indexed, {} failed", succeeded.sum(), failed.sum());
+      return closed;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private void notifySuccess(DocWriteRequest<?> request, BulkItemResponse item) {
+    succeeded.increment();
+    ItemListener listener = listeners.remove(request);
+    if (listener != null) {
+      listener.onSuccess(request, item);
+    }
+    if (options.getListener() != null) {
+      options.getListener().onSuccess(request, item);
+    }
+  }
+
+  private void notifyFailure(DocWriteRequest<?> request, Exception failure) {
+    failed.increment();
+    ItemListener listener = listeners.remove(request);
+    if (listener != null) {
+      listener.onFailure(request, failure);
+    }
+    if (options.getListener() != null) {
+      options.getListener().onFailure(request, failure);
+    }
+  }
+
+  private class BulkListener implements BulkProcessor.Listener {
+
+    @Override
+    public void beforeBulk(long executionId, BulkRequest request) {
+      log.debug("bulk {}: {} documents, {} bytes", executionId, request.numberOfActions(), request.estimatedSizeInBytes());
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+      List<DocWriteRequest<?>> requests = request.requests();
+      BulkItemResponse[] items = response.getItems();
+
+      for (int i = 0; i < items.length; i++) {
+        if (items[i].isFailed()) {
+          notifyFailure(requests.get(i), items[i].getFailure().getCause());
+        } else {
+          notifySuccess(requests.get(i), items[i]);
+        }
+      }
+      if (response.hasFailures()) {
+        log.warn("bulk {}: {}", executionId, response.buildFailureMessage());
+      }
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+      log.error("bulk {} of {} documents failed", executionId, request.numberOfActions(), failure);
+      Exception exception = (failure instanceof Exception) ? (Exception) failure : new RuntimeException(failure);
+      request.requests().forEach(item -> notifyFailure(item, exception));
+    }
+  }
+}
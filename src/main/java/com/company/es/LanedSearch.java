@@ -0,0 +1,145 @@
+package com.company.es;
+
+import com.company.common.ChangeFeedCursor;
+import com.company.common.ChangeFeedPage;
+import com.company.common.ISearch;
+import com.company.common.SearchQuery;
+import com.company.common.SearchResult;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.common.xcontent.ToXContentObject;
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * ISearch running each operation in the priority lane of its class: search, count and get are
+ * INTERACTIVE, writes are BULK, deletes and change feed reads are MAINTENANCE
+ */
+public class LanedSearch implements ISearch {
+
+  private final ISearch search;
+  private final PriorityLanes lanes;
+
+  public LanedSearch(ISearch search) {
+    this(search, new PriorityLanes());
+  }
+
+  public LanedSearch(ISearch search, PriorityLanes lanes) {
+    this.search = search;
+    this.lanes = lanes;
+  }
+
+  public PriorityLanes getLanes() {
+    return lanes;
+  }
+
+  @Override
+  public void search(SearchQuery searchQuery, Consumer<SearchResult> consumer) {
+    lanes.call(PriorityLanes.Lane.INTERACTIVE, () -> {
+      search.search(searchQuery, consumer);
+      return null;
+    });
+  }
+
+  @Override
+  public void searchWhile(SearchQuery searchQuery, Predicate<SearchResult> consumer) {
+    lanes.call(PriorityLanes.Lane.INTERACTIVE, () -> {
+      search.searchWhile(searchQuery, consumer);
+      return null;
+    });
+  }
+
+  @Override
+  public Flow.Publisher<SearchResult> publish(SearchQuery searchQuery) {
+    // pages are fetched asynchronously on subscriber demand, nothing to queue here
+    return search.publish(searchQuery);
+  }
+
+  @Override
+  public long count(SearchQuery searchQuery) {
+    return lanes.call(PriorityLanes.Lane.INTERACTIVE, () -> search.count(searchQuery));
+  }
+
+  @Override
+  public SearchResult get(String indexName, String id) {
+    return lanes.call(PriorityLanes.Lane.INTERACTIVE, () -> search.get(indexName, id));
+  }
+
+  @Override
+  public ChangeFeedPage changes(String indexName, ChangeFeedCursor cursor, int batchSize) {
+    return lanes.call(PriorityLanes.Lane.MAINTENANCE, () -> search.changes(indexName, cursor, batchSize));
+  }
+
+  @Override
+  public IndexResponse ingest(String indexName, String type, String doc) {
+    return lanes.call(PriorityLanes.Lane.BULK, () -> search.ingest(indexName, type, doc));
+  }
+
+  @Override
+  public BulkResponse ingest(String indexName, String type, List<String> docs) {
+    return lanes.call(PriorityLanes.Lane.BULK, () -> search.ingest(indexName, type, docs));
+  }
+
+  @Override
+  public IndexResponse ingest(String indexName, String type, ToXContentObject doc) {
+    return lanes.call(PriorityLanes.Lane.BULK, () -> search.ingest(indexName, type, doc));
+  }
+
+  @Override
+  public BulkResponse ingestObjects(String indexName, String type, List<? extends ToXContentObject> docs) {
+    return lanes.call(PriorityLanes.Lane.BULK, () -> search.ingestObjects(indexName, type, docs));
+  }
+
+  @Override
+  public BulkResponse index(String indexName, String type, Map<String, String> docs) {
+    return lanes.call(PriorityLanes.Lane.BULK, () -> search.index(indexName, type, docs));
+  }
+
+  @Override
+  public UpdateResponse update(String indexName, String id, String partialDoc) {
+    return lanes.call(PriorityLanes.Lane.BULK, () -> search.update(indexName, id, partialDoc));
+  }
+
+  @Override
+  public UpdateResponse upsert(String indexName, String id, String partialDoc) {
+    return lanes.call(PriorityLanes.Lane.BULK, () -> search.upsert(indexName, id, partialDoc));
+  }
+
+  @Override
+  public BulkResponse update(String indexName, Map<String, String> partialDocs) {
+    return lanes.call(PriorityLanes.Lane.BULK, () -> search.update(indexName, partialDocs));
+  }
+
+  @Override
+  public BulkResponse increment(String indexName, Map<String, Map<String, Long>> deltas) {
+    return lanes.call(PriorityLanes.Lane.BULK, () -> search.increment(indexName, deltas));
+  }
+
+  @Override
+  public DeleteResponse delete(String index, String id) {
+    return lanes.call(PriorityLanes.Lane.MAINTENANCE, () -> search.delete(index, id));
+  }
+
+  @Override
+  public BulkResponse delete(String indexName, String type, List<String> ids) {
+    return lanes.call(PriorityLanes.Lane.MAINTENANCE, () -> search.delete(indexName, type, ids));
+  }
+
+  @Override
+  public BulkByScrollResponse deleteByQuery(String indexName, String description) {
+    return lanes.call(PriorityLanes.Lane.MAINTENANCE, () -> search.deleteByQuery(indexName, description));
+  }
+
+  @Override
+  public void destroy() {
+    lanes.destroy();
+    search.destroy();
+  }
+}
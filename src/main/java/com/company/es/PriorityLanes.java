@@ -0,0 +1,167 @@
+package com.company.es;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One executor per lane, each with its own concurrency limit (threads) and bounded queue, so a
+ * maintenance job can't take the capacity reserved for interactive searches. Limits are given to the
+ * constructor per lane, defaulting to those of the Lane. A full lane rejects
+ * with RejectedExecutionException. Latency per lane is logged every REPORT_SECONDS.
+ */
+@Slf4j
+public class PriorityLanes {
+
+  public static final long REPORT_SECONDS = 60;
+
+  // default concurrency and queue size of each lane
+  @Getter
+  public enum Lane {
+    INTERACTIVE(Math.max(4, Runtime.getRuntime().availableProcessors()), 1000),
+    BULK(2, 100),
+    MAINTENANCE(1, 10);
+
+    private final int defaultConcurrency;
+    private final int defaultQueueSize;
+
+    Lane(int defaultConcurrency, int defaultQueueSize) {
+      this.defaultConcurrency = defaultConcurrency;
+      this.defaultQueueSize = defaultQueueSize;
+    }
+  }
+
+  private final Map<Lane, ThreadPoolExecutor> executors = new EnumMap<>(Lane.class);
+  private final Map<Lane, LaneStats> stats = new EnumMap<>(Lane.class);
+  private final ScheduledExecutorService reporter;
+
+  public PriorityLanes() {
+    this(Collections.emptyMap(), Collections.emptyMap());
+  }
+
+  /**
+   * @param concurrency threads of each lane, lanes missing from the map get their default
+   * @param queueSizes operations each lane queues before rejecting, lanes missing from the map get their default
+   */
+  public PriorityLanes(Map<Lane, Integer> concurrency, Map<Lane, Integer> queueSizes) {
+    for (Lane lane : Lane.values()) {
+      int threads = concurrency.getOrDefault(lane, lane.getDefaultConcurrency());
+      int queueSize = queueSizes.getOrDefault(lane, lane.getDefaultQueueSize());
+      if (threads < 1 || queueSize < 1) {
+        throw new IllegalArgumentException("lane " + lane + " needs at least one thread and one queue slot");
+      }
+      executors.put(lane, new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueSize),
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("lane-" + lane.name().toLowerCase() + "-%d").build()));
+      stats.put(lane, new LaneStats());
+    }
+    reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("lane-report-%d").build());
+    reporter.scheduleAtFixedRate(this::report, REPORT_SECONDS, REPORT_SECONDS, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Runs the operation in the lane and waits for its result
+   */
+  public <T> T call(Lane lane, Callable<T> operation) {
+    LaneStats laneStats = stats.get(lane);
+    long submitted = System.nanoTime();
+    Future<T> future;
+
+    try {
+      future = executors.get(lane).submit(() -> {
+        long started = System.nanoTime();
+        try {
+          return operation.call();
+        } finally {
+          laneStats.record(started - submitted, System.nanoTime() - started);
+        }
+      });
+    } catch (RuntimeException e) {
+      laneStats.rejected.increment();
+      throw e;
+    }
+
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted waiting for " + lane + " operation", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  public LaneStats getStats(Lane lane) {
+    return stats.get(lane);
+  }
+
+  public void report() {
+    stats.forEach((lane, laneStats) -> {
+      long count = laneStats.count.sumThenReset();
+      long queueNanos = laneStats.queueNanos.sumThenReset();
+      long serviceNanos = laneStats.serviceNanos.sumThenReset();
+      long maxNanos = laneStats.maxNanos.getThenReset();
+      long rejected = laneStats.rejected.sumThenReset();
+
+      if (count > 0 || rejected > 0) {
+        log.info("lane {}: {} ops, avg queue {}ms, avg service {}ms, max {}ms, {} rejected, {} queued",
+          lane, count, millis(queueNanos, count), millis(serviceNanos, count), maxNanos / 1000000, rejected,
+          executors.get(lane).getQueue().size());
+      }
+    });
+  }
+
+  public void destroy() {
+    reporter.shutdown();
+    executors.values().forEach(ThreadPoolExecutor::shutdown);
+    for (ThreadPoolExecutor executor : executors.values()) {
+      try {
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    this.report();
+  }
+
+  private static long millis(long nanos, long count) {
+    return (count == 0) ? 0 : nanos / count / 1000000;
+  }
+
+  /**
+   * Latency of the lane since the last report
+   */
+  @Getter
+  public static class LaneStats {
+    private final LongAdder count = new LongAdder();
+    private final LongAdder queueNanos = new LongAdder();
+    private final LongAdder serviceNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder rejected = new LongAdder();
+
+    void record(long queued, long service) {
+      count.increment();
+      queueNanos.add(queued);
+      serviceNanos.add(service);
+      maxNanos.accumulate(queued + service);
+    }
+  }
+}
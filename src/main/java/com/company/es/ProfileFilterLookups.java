@@ -0,0 +1,77 @@
+package com.company.es;
+
+import com.company.common.ProfileFilter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.indices.TermsLookup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * User profile filters (FILTER_BY_COUNTRY, ...) as terms-lookup queries on documents of the
+ * LOOKUP_INDEX, one document per filter and canonical value set. All users of a country share
+ * one named filter registered in the cluster, which resolves to the same terms query and so to
+ * the same entry of the shards' filter cache. Registered lookups are cached locally, a value
+ * set is indexed once per process. A lookup that can't be registered falls back to an inline
+ * terms query.
+ */
+@Slf4j
+public class ProfileFilterLookups {
+
+  public static final String LOOKUP_INDEX = "profile-filters";
+  private static final String LOOKUP_TYPE = "default";
+  private static final String VALUES_FIELD = "values";
+  private static final long MAX_LOOKUPS = 10000;
+
+  private final Client client;
+  private final Cache<String, TermsLookup> lookups = CacheBuilder.newBuilder().maximumSize(MAX_LOOKUPS).build();
+
+  public ProfileFilterLookups(Client client) {
+    this.client = client;
+  }
+
+  /**
+   * The filter of the values, empty without values. A new builder is returned on every call,
+   * builders are mutable and the caller adds it to its own query.
+   */
+  public Optional<QueryBuilder> filter(ProfileFilter filter, Collection<String> values) {
+    List<String> canonical = ProfileFilter.canonical(values);
+    if (canonical.isEmpty()) {
+      return Optional.empty();
+    }
+
+    String id = filter.name() + "-" + Hashing.murmur3_128().hashString(String.join("\n", canonical), StandardCharsets.UTF_8);
+    try {
+      TermsLookup lookup = lookups.get(id, () -> this.register(id, filter, canonical));
+      return Optional.of(QueryBuilders.termsLookupQuery(filter.getField(), lookup).queryName(filter.name()));
+    } catch (ExecutionException e) {
+      log.warn("Failed to register {} lookup {}, filtering inline: {}", filter, canonical, e.getCause().getMessage());
+      return Optional.of(QueryBuilders.termsQuery(filter.getField(), canonical).queryName(filter.name()));
+    }
+  }
+
+  private TermsLookup register(String id, ProfileFilter filter, List<String> values) throws IOException {
+    XContentBuilder doc = XContentFactory.jsonBuilder()
+      .startObject()
+      .field("filter", filter.name())
+      .field(VALUES_FIELD, values)
+      .endObject();
+    // the lookup is a realtime get, no refresh needed
+    client.prepareIndex(LOOKUP_INDEX, LOOKUP_TYPE, id).setSource(doc).get();
+    log.debug("registered {} lookup {} for {}", filter, id, values);
+
+    return new TermsLookup(LOOKUP_INDEX, LOOKUP_TYPE, id, VALUES_FIELD);
+  }
+}
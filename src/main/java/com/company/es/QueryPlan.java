@@ -0,0 +1,40 @@
+package com.company.es;
+
+import com.company.common.SearchQueryClause;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Clauses of a SearchQuery split into scoring (must) and non-scoring (filter) context,
+ * in the order they are sent to ES
+ */
+@Getter
+public class QueryPlan {
+
+  private final List<SearchQueryClause> scoringClauses;
+  private final List<SearchQueryClause> filterClauses;
+
+  public QueryPlan(List<SearchQueryClause> scoringClauses, List<SearchQueryClause> filterClauses) {
+    this.scoringClauses = scoringClauses;
+    this.filterClauses = filterClauses;
+  }
+
+  /**
+   * Plan keeping the caller's clause order, typed filter clauses go to filter context
+   */
+  public static QueryPlan of(List<SearchQueryClause> clauses) {
+    List<SearchQueryClause> scoringClauses = new ArrayList<>();
+    List<SearchQueryClause> filterClauses = new ArrayList<>();
+
+    for (SearchQueryClause clause : clauses) {
+      if (clause.isFilter()) {
+        filterClauses.add(clause);
+      } else {
+        scoringClauses.add(clause);
+      }
+    }
+    return new QueryPlan(scoringClauses, filterClauses);
+  }
+}
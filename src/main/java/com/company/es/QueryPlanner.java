@@ -0,0 +1,164 @@
+package com.company.es;
+
+import com.company.common.SearchQuery;
+import com.company.common.SearchQueryClause;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.client.Client;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rewrites the clauses of a SearchQuery using per field/term document frequencies:
+ * most selective clauses first, low-selectivity scoring clauses demoted to filter context.
+ * Statistics only ever change the order and the context of clauses, never what matches: they
+ * are up to refreshMinutes old, so a zero count doesn't prove a clause can't match now.
+ *
+ * Statistics are exact document counts (size 0 searches with exact total hits) rather than
+ * termvectors, which only report the statistics of a single shard. They are loaded and refreshed
+ * in the background; a query is never blocked on statistics, unknown clauses keep their position.
+ * Only exact-term clauses (MATCH_TERM, TERMS values) are counted: their values repeat across
+ * queries, while a count per new free-text clause would cost about as much as the query itself.
+ */
+@Slf4j
+public class QueryPlanner {
+
+  public static final double DEFAULT_DEMOTE_RATIO = 0.5;
+  public static final long DEFAULT_REFRESH_MINUTES = 5;
+  private static final long MAX_STATS = 10000;
+  private static final long UNKNOWN = Long.MAX_VALUE;
+  private static final StatsKey ALL_DOCS = new StatsKey(SearchQueryClause.ClauseType.ALL, null, null);
+
+  private final Client client;
+  private final String indexName;
+  private final double demoteRatio;
+  private final ExecutorService executor;
+  private final LoadingCache<StatsKey, Long> docFreqs;
+  private final Set<StatsKey> pending = ConcurrentHashMap.newKeySet();
+
+  public QueryPlanner(Client client, String indexName) {
+    this(client, indexName, DEFAULT_DEMOTE_RATIO, DEFAULT_REFRESH_MINUTES);
+  }
+
+  public QueryPlanner(Client client, String indexName, double demoteRatio, long refreshMinutes) {
+    this.client = client;
+    this.indexName = indexName;
+    this.demoteRatio = demoteRatio;
+    this.executor = Executors.newFixedThreadPool(2,
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("query-planner-%d").build());
+    this.docFreqs = CacheBuilder.newBuilder()
+      .maximumSize(MAX_STATS)
+      .refreshAfterWrite(refreshMinutes, TimeUnit.MINUTES)
+      .build(CacheLoader.asyncReloading(new CacheLoader<StatsKey, Long>() {
+        @Override
+        public Long load(StatsKey key) {
+          return countDocs(key);
+        }
+      }, executor));
+  }
+
+  public QueryPlan plan(SearchQuery searchQuery) {
+    Long totalDocs = this.lookup(ALL_DOCS);
+    List<PlannedClause> scoring = new ArrayList<>();
+    List<PlannedClause> filters = new ArrayList<>();
+
+    for (SearchQueryClause clause : searchQuery.getClauses()) {
+      if (clause.getType() == SearchQueryClause.ClauseType.TERMS) {
+        long estimate = 0;
+        for (String value : clause.getValues()) {
+          Long docFreq = this.lookup(new StatsKey(SearchQueryClause.ClauseType.MATCH_TERM, clause.getFieldName(), value));
+          estimate = (docFreq == null || estimate == UNKNOWN) ? UNKNOWN : estimate + docFreq;
+        }
+        filters.add(new PlannedClause(clause, estimate));
+      } else if (clause.isFilter()) {
+        filters.add(new PlannedClause(clause, UNKNOWN));
+      } else if (clause.getType() == SearchQueryClause.ClauseType.MATCH_TERM) {
+        Long docFreq = this.lookup(new StatsKey(clause.getType(), clause.getFieldName(), clause.getText()));
+        scoring.add(new PlannedClause(clause, (docFreq == null) ? UNKNOWN : docFreq));
+      } else {
+        scoring.add(new PlannedClause(clause, UNKNOWN));
+      }
+    }
+
+    Comparator<PlannedClause> bySelectivity = Comparator.comparingLong(planned -> planned.estimate);
+    scoring.sort(bySelectivity);
+
+    // demote the least selective scoring clauses, keeping at least one clause for ranking
+    if (totalDocs != null && totalDocs > 0) {
+      for (int i = scoring.size() - 1; i > 0; i--) {
+        PlannedClause planned = scoring.get(i);
+        if (planned.estimate != UNKNOWN && ((double) planned.estimate / totalDocs) > demoteRatio) {
+          filters.add(scoring.remove(i));
+        }
+      }
+    }
+    filters.sort(bySelectivity);
+
+    return new QueryPlan(clausesOf(scoring), clausesOf(filters));
+  }
+
+  public void destroy() {
+    executor.shutdownNow();
+  }
+
+  private Long lookup(StatsKey key) {
+    Long docFreq = docFreqs.getIfPresent(key);
+
+    if (docFreq == null && pending.add(key)) {
+      executor.execute(() -> {
+        try {
+          docFreqs.refresh(key);
+        } finally {
+          pending.remove(key);
+        }
+      });
+    }
+    return docFreq;
+  }
+
+  private long countDocs(StatsKey key) {
+    SearchQueryClause clause = new SearchQueryClause(key.type, key.fieldName, key.text);
+
+    long count = client.prepareSearch(indexName)
+      .setQuery(ESSearchImpl.createQuery(clause))
+      .setSize(0)
+      .setTrackTotalHits(true)
+      .get()
+      .getHits().getTotalHits();
+    log.debug("docs matching {} {}:{} in {} = {}", key.type, key.fieldName, key.text, indexName, count);
+
+    return count;
+  }
+
+  private static List<SearchQueryClause> clausesOf(List<PlannedClause> planned) {
+    List<SearchQueryClause> clauses = new ArrayList<>();
+    planned.forEach(item -> clauses.add(item.clause));
+    return clauses;
+  }
+
+  @AllArgsConstructor
+  @EqualsAndHashCode
+  private static class StatsKey {
+    private final SearchQueryClause.ClauseType type;
+    private final String fieldName;
+    private final String text;
+  }
+
+  @AllArgsConstructor
+  private static class PlannedClause {
+    private final SearchQueryClause clause;
+    private final long estimate;
+  }
+}
@@ -0,0 +1,143 @@
+package com.company.es;
+
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.Version;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Popularity (sold) and recency (created) precomputed at ingest into rank_feature fields,
+ * applied at query time with rank_feature queries instead of script scoring. On ES 7+ (Lucene 8)
+ * a search that does not track total hits can also skip blocks that can't make the top hits
+ * (block-max WAND); the 6.x feature query scores every match.
+ *
+ * The field type and query are called rank_feature from ES 7.0 and feature in 6.5 to 6.8 (same
+ * parameters); fieldType() picks the one the cluster supports.
+ */
+@Slf4j
+public class RankFeatures {
+
+  public static final String FIELD = "rank";
+  public static final String POPULARITY = FIELD + ".popularity";
+  public static final String RECENCY = FIELD + ".recency";
+
+  public static final float POPULARITY_BOOST = 1.0f;
+  public static final float RECENCY_BOOST = 0.5f;
+
+  // recency doubles every RECENCY_HALF_LIFE_DAYS after the origin, so the ratio between the
+  // recency of two documents only depends on how far apart they were created
+  private static final LocalDate RECENCY_ORIGIN = LocalDate.of(2000, 1, 1);
+  private static final double RECENCY_HALF_LIFE_DAYS = 365;
+
+  /**
+   * rank_feature on ES 7+, feature on 6.5+
+   */
+  public static String fieldType(Client client) {
+    Version version = client.admin().cluster().prepareState().clear().setNodes(true).get().getState().getNodes().getMinNodeVersion();
+    if (version.before(Version.V_6_5_0)) {
+      throw new IllegalStateException("rank features need ES 6.5 or later, the cluster runs " + version);
+    }
+    return (version.major >= 7) ? "rank_feature" : "feature";
+  }
+
+  public static void putMapping(Client client, String indexName, String fieldType) {
+    String mapping =
+      "{\"properties\":{\"" + FIELD + "\":{\"properties\":{" +
+      "\"popularity\":{\"type\":\"" + fieldType + "\"}," +
+      "\"recency\":{\"type\":\"" + fieldType + "\"}" +
+      "}}}}";
+    client.admin().indices().preparePutMapping(indexName).setSource(mapping, XContentType.JSON).get();
+  }
+
+  /**
+   * Adds the rank features computable from the fields present in a (partial) document
+   */
+  public static String addFeatures(String doc) {
+    Map<String, Object> source = XContentHelper.convertToMap(XContentType.JSON.xContent(), doc, true);
+    if (!addFeatures(source)) {
+      return doc;
+    }
+    try {
+      return Strings.toString(XContentFactory.jsonBuilder().map(source));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Adds the rank features to the source map
+   *
+   * @return false if no rank feature could be computed from its fields
+   */
+  public static boolean addFeatures(Map<String, Object> source) {
+    Map<String, Object> features = new HashMap<>();
+
+    Object sold = source.get("sold");
+    if (sold != null) {
+      try {
+        // rank features must be positive
+        features.put("popularity", Math.max(0, Double.parseDouble(sold.toString())) + 1);
+      } catch (NumberFormatException e) {
+        log.warn("Not a number, sold: {}", sold);
+      }
+    }
+
+    Object created = source.get("created");
+    if (created != null) {
+      try {
+        LocalDate date = LocalDate.parse(created.toString().substring(0, Math.min(10, created.toString().length())));
+        features.put("recency", recency(date));
+      } catch (DateTimeParseException e) {
+        log.warn("Not a date, created: {}", created);
+      }
+    }
+
+    if (features.isEmpty()) {
+      return false;
+    }
+    source.put(FIELD, features);
+    return true;
+  }
+
+  /**
+   * Whether searches with the rank queries of this field type skip non competitive hits when
+   * total hits are not tracked, true for rank_feature (ES 7+) only
+   */
+  public static boolean skipsNonCompetitive(String fieldType) {
+    return "rank_feature".equals(fieldType);
+  }
+
+  /**
+   * rank_feature queries to add as optional clauses of the root bool query
+   *
+   * @param fieldType from fieldType(), the query has the name of the field type
+   */
+  public static QueryBuilder[] queries(String fieldType) {
+    // measured from now: created one year ago scores 1/2 of the recency boost, today 2/3, two years ago 1/3
+    double recencyPivot = recency(LocalDate.now().minusYears(1));
+
+    // the transport client doesn't ship the mapper-extras rank_feature query builder
+    return new QueryBuilder[] {
+      QueryBuilders.wrapperQuery("{\"" + fieldType + "\":{\"field\":\"" + POPULARITY + "\",\"saturation\":{},\"boost\":" + POPULARITY_BOOST + "}}"),
+      QueryBuilders.wrapperQuery("{\"" + fieldType + "\":{\"field\":\"" + RECENCY + "\",\"saturation\":{\"pivot\":" + recencyPivot + "},\"boost\":" + RECENCY_BOOST + "}}")
+    };
+  }
+
+  private static double recency(LocalDate created) {
+    // rank features must be positive normal floats
+    return Math.max(Float.MIN_NORMAL, Math.pow(2, ChronoUnit.DAYS.between(RECENCY_ORIGIN, created) / RECENCY_HALF_LIFE_DAYS));
+  }
+}
@@ -0,0 +1,97 @@
+package com.company.es;
+
+import com.company.common.WriteVisibility;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.client.Client;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes writes visible with one refresh per index every intervalMillis at most, shared by all the
+ * writes waiting for it, instead of a refresh (and a tiny segment) per write
+ */
+@Slf4j
+public class RefreshCoalescer {
+
+  public static final long DEFAULT_INTERVAL_MILLIS = 200;
+
+  private final Client client;
+  private volatile long intervalMillis;
+  private final ConcurrentHashMap<String, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService scheduler;
+
+  public RefreshCoalescer(Client client) {
+    this(client, DEFAULT_INTERVAL_MILLIS);
+  }
+
+  public RefreshCoalescer(Client client, long intervalMillis) {
+    this.client = client;
+    this.intervalMillis = intervalMillis;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("refresh-coalescer-%d").build());
+  }
+
+  /**
+   * Applies to the refreshes scheduled from now on
+   */
+  public void setIntervalMillis(long intervalMillis) {
+    this.intervalMillis = intervalMillis;
+  }
+
+  /**
+   * Completes once a refresh of the index started after this call has finished
+   */
+  public CompletableFuture<Void> visible(String indexName) {
+    return pending.computeIfAbsent(indexName, index -> {
+      CompletableFuture<Void> refreshed = new CompletableFuture<>();
+      scheduler.schedule(() -> this.refresh(index, refreshed), intervalMillis, TimeUnit.MILLISECONDS);
+      return refreshed;
+    });
+  }
+
+  /**
+   * Called after a write to the index acknowledged, waits for its visibility if the mode asks for it
+   */
+  public void afterWrite(String indexName, WriteVisibility visibility) {
+    if (visibility == WriteVisibility.VISIBLE_WITHIN) {
+      this.awaitRefresh(indexName);
+    }
+  }
+
+  /**
+   * Waits for a refresh of the index started after this call
+   */
+  public void awaitRefresh(String indexName) {
+    try {
+      this.visible(indexName).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted waiting for refresh of " + indexName, e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("refresh of " + indexName + " failed", e.getCause());
+    }
+  }
+
+  public void destroy() {
+    scheduler.shutdown();
+  }
+
+  private void refresh(String indexName, CompletableFuture<Void> refreshed) {
+    // writes acknowledged from now on wait for the next refresh
+    pending.remove(indexName, refreshed);
+
+    client.admin().indices().prepareRefresh(indexName).execute(ActionListener.wrap(
+      response -> refreshed.complete(null),
+      e -> {
+        log.error("Failed to refresh {}", indexName, e);
+        refreshed.completeExceptionally(e);
+      }));
+  }
+}
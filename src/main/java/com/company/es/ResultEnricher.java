@@ -0,0 +1,126 @@
+package com.company.es;
+
+import com.company.common.Enrichment;
+import com.company.common.SearchResult;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enriches a page of search results with one _mget against the secondary index, secondary
+ * documents are kept in a bounded TTL cache (missing ones too).
+ */
+@Slf4j
+public class ResultEnricher {
+
+  public static final long DEFAULT_TTL_SECONDS = 60;
+  public static final long DEFAULT_MAX_DOCUMENTS = 10000;
+
+  private final Client client;
+  private final Cache<String, Map<String, Object>> documents;
+
+  public ResultEnricher(Client client) {
+    this(client, DEFAULT_TTL_SECONDS, DEFAULT_MAX_DOCUMENTS);
+  }
+
+  public ResultEnricher(Client client, long ttlSeconds, long maxDocuments) {
+    this.client = client;
+    this.documents = CacheBuilder.newBuilder()
+      .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+      .maximumSize(maxDocuments)
+      .build();
+  }
+
+  public void enrich(List<SearchResult> searchResults, Enrichment enrichment) {
+    List<Map<String, Object>> sources = new ArrayList<>();
+    List<String> joinKeys = new ArrayList<>();
+
+    for (SearchResult searchResult : searchResults) {
+      Map<String, Object> source = (searchResult.getSourceAsString() != null)
+        ? XContentHelper.convertToMap(XContentType.JSON.xContent(), searchResult.getSourceAsString(), true)
+        : new HashMap<>();
+      Object joinKey = (enrichment.getJoinField() != null) ? source.get(enrichment.getJoinField()) : searchResult.getContentId();
+
+      sources.add(source);
+      joinKeys.add((joinKey != null) ? joinKey.toString() : null);
+    }
+
+    Map<String, Map<String, Object>> secondary = this.resolve(enrichment.getIndexName(), joinKeys);
+
+    for (int i = 0; i < searchResults.size(); i++) {
+      Map<String, Object> document = (joinKeys.get(i) != null) ? secondary.get(joinKeys.get(i)) : null;
+      if (document == null || document.isEmpty()) {
+        continue;
+      }
+
+      Map<String, Object> source = sources.get(i);
+      source.put(enrichment.getTargetField(), document);
+      try {
+        searchResults.get(i).setSourceAsString(Strings.toString(XContentFactory.jsonBuilder().map(source)));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  public void invalidate(String indexName, String id) {
+    documents.invalidate(cacheKey(indexName, id));
+  }
+
+  private Map<String, Map<String, Object>> resolve(String indexName, List<String> joinKeys) {
+    Map<String, Map<String, Object>> resolved = new HashMap<>();
+    Set<String> missing = new LinkedHashSet<>();
+
+    for (String joinKey : joinKeys) {
+      if (joinKey == null || resolved.containsKey(joinKey)) {
+        continue;
+      }
+      Map<String, Object> document = documents.getIfPresent(cacheKey(indexName, joinKey));
+      if (document != null) {
+        resolved.put(joinKey, document);
+      } else {
+        missing.add(joinKey);
+      }
+    }
+
+    if (!missing.isEmpty()) {
+      MultiGetRequestBuilder request = client.prepareMultiGet();
+      missing.forEach(id -> request.add(indexName, id));
+
+      for (MultiGetItemResponse item : request.get().getResponses()) {
+        if (item.isFailed()) {
+          log.error("Failed to get {}/{}: {}", indexName, item.getId(), item.getFailure().getMessage());
+          continue;
+        }
+
+        Map<String, Object> document = item.getResponse().isExists() ? item.getResponse().getSourceAsMap() : Collections.emptyMap();
+        documents.put(cacheKey(indexName, item.getId()), document);
+        resolved.put(item.getId(), document);
+      }
+      log.debug("enriched from {}: {} cached, {} fetched", indexName, resolved.size() - missing.size(), missing.size());
+    }
+    return resolved;
+  }
+
+  private static String cacheKey(String indexName, String id) {
+    return indexName + "/" + id;
+  }
+}
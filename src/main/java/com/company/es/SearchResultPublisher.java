@@ -0,0 +1,168 @@
+package com.company.es;
+
+import com.company.common.SearchResult;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Cold publisher of search results. Pages are fetched only when subscriber demand exceeds what
+ * is buffered and the bounded buffer has room for another page; hits are decoded and delivered
+ * on the executor, never on the transport thread.
+ */
+@Slf4j
+public class SearchResultPublisher implements Flow.Publisher<SearchResult> {
+
+  public static final int DEFAULT_BUFFER_PAGES = 4;
+
+  private final IntFunction<SearchRequestBuilder> pageRequest;
+  private final Function<SearchResponse, List<SearchResult>> decoder;
+  private final int pageSize;
+  private final int maxResults;
+  private final int bufferSize;
+  private final Executor executor;
+
+  /**
+   * @param pageRequest request of the page starting at the given offset
+   * @param decoder     converts a page of hits to results
+   * @param maxResults  results past this offset are not fetched
+   */
+  public SearchResultPublisher(IntFunction<SearchRequestBuilder> pageRequest, Function<SearchResponse, List<SearchResult>> decoder,
+                               int pageSize, int maxResults, Executor executor) {
+    this.pageRequest = pageRequest;
+    this.decoder = decoder;
+    this.pageSize = pageSize;
+    this.maxResults = maxResults;
+    this.bufferSize = pageSize * DEFAULT_BUFFER_PAGES;
+    this.executor = executor;
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super SearchResult> subscriber) {
+    PageSubscription subscription = new PageSubscription(subscriber);
+    subscriber.onSubscribe(subscription);
+  }
+
+  private class PageSubscription implements Flow.Subscription {
+
+    private final Flow.Subscriber<? super SearchResult> subscriber;
+    private final AtomicLong demand = new AtomicLong();
+    private final Queue<SearchResult> buffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger buffered = new AtomicInteger();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicBoolean fetching = new AtomicBoolean();
+
+    private volatile boolean cancelled;
+    private volatile boolean exhausted;
+    private volatile Throwable error;
+    // only touched by the drain loop
+    private boolean done;
+    // only touched while fetching is held
+    private int from;
+
+    PageSubscription(Flow.Subscriber<? super SearchResult> subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        error = new IllegalArgumentException("non-positive subscription request: " + n);
+      } else {
+        demand.getAndUpdate(current -> (Long.MAX_VALUE - current < n) ? Long.MAX_VALUE : current + n);
+      }
+      this.drain();
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      this.drain();
+    }
+
+    private void drain() {
+      if (wip.getAndIncrement() == 0) {
+        executor.execute(this::drainLoop);
+      }
+    }
+
+    private void drainLoop() {
+      int missed = 1;
+
+      do {
+        if (cancelled || done) {
+          buffer.clear();
+        } else if (error != null) {
+          done = true;
+          buffer.clear();
+          subscriber.onError(error);
+        } else {
+          SearchResult searchResult;
+          while (demand.get() > 0 && !cancelled && (searchResult = buffer.poll()) != null) {
+            buffered.decrementAndGet();
+            demand.decrementAndGet();
+            subscriber.onNext(searchResult);
+          }
+
+          if (buffer.isEmpty() && exhausted && !cancelled) {
+            done = true;
+            subscriber.onComplete();
+          } else {
+            this.fetchIfNeeded();
+          }
+        }
+        missed = wip.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    private void fetchIfNeeded() {
+      if (exhausted || cancelled || demand.get() <= buffered.get() || buffered.get() + pageSize > bufferSize) {
+        return;
+      }
+      if (!fetching.compareAndSet(false, true)) {
+        return;
+      }
+
+      int pageFrom = from;
+      from += pageSize;
+      pageRequest.apply(pageFrom).execute(ActionListener.wrap(
+        response -> executor.execute(() -> this.onPage(response, pageFrom)),
+        e -> {
+          error = e;
+          fetching.set(false);
+          this.drain();
+        }));
+    }
+
+    private void onPage(SearchResponse response, int pageFrom) {
+      try {
+        List<SearchResult> searchResults = decoder.apply(response);
+        if (!cancelled) {
+          buffer.addAll(searchResults);
+          buffered.addAndGet(searchResults.size());
+        }
+        if (response.getHits().getHits().length < pageSize || pageFrom + 2 * pageSize > maxResults) {
+          exhausted = true;
+        }
+      } catch (Exception e) {
+        log.error("Failed to decode page at {}", pageFrom, e);
+        error = e;
+      } finally {
+        fetching.set(false);
+        this.drain();
+      }
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package com.company.search.query;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deadline-aware load shedding at the search entry point, in front of the tenant fair scheduler.
+ * Queue wait is estimated from the request's position in its tenant's fair order, so a noisy
+ * tenant's backlog doesn't shed a quiet tenant, and an EWMA of recent service times; a request whose
+ * remaining deadline can't cover wait + service is rejected with OverloadedException before doing any work.
+ */
+@Slf4j
+public class AdmissionController {
+
+  private static final double EWMA_ALPHA = 0.2;
+
+  private final TenantFairScheduler scheduler;
+  // EWMA of service time in nanos, as double bits
+  private final AtomicLong serviceNanos = new AtomicLong(Double.doubleToLongBits(0));
+
+  public AdmissionController(TenantFairScheduler scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * Runs the call in the tenant's fair share, measuring its service time
+   *
+   * @param deadlineMillis epoch millis the result is needed by, null to always admit
+   */
+  public <T> T execute(String tenantId, Long deadlineMillis, Callable<T> call) throws Exception {
+    if (deadlineMillis != null) {
+      this.admit(tenantId, deadlineMillis);
+    }
+
+    return scheduler.execute(tenantId, this.timed(deadlineMillis, call));
+  }
+
+  public long getEstimatedWaitMillis(String tenantId) {
+    double service = Double.longBitsToDouble(serviceNanos.get());
+    return TimeUnit.NANOSECONDS.toMillis((long) (scheduler.getWaitTurns(tenantId) * service));
+  }
+
+  /**
+   * Wraps the work done once the request leaves its queue: rejects it if its deadline passed
+   * while queued and records its service time
+   */
+  private <T> Callable<T> timed(Long deadlineMillis, Callable<T> work) {
+    return () -> {
+      if (deadlineMillis != null && deadlineMillis <= System.currentTimeMillis()) {
+        throw new OverloadedException(0, deadlineMillis - System.currentTimeMillis());
+      }
+
+      long started = System.nanoTime();
+      try {
+        return work.call();
+      } finally {
+        this.recordService(System.nanoTime() - started);
+      }
+    };
+  }
+
+  private void admit(String tenantId, long deadlineMillis) {
+    long remainingMillis = deadlineMillis - System.currentTimeMillis();
+    long estimatedMillis = this.getEstimatedWaitMillis(tenantId)
+      + TimeUnit.NANOSECONDS.toMillis((long) Double.longBitsToDouble(serviceNanos.get()));
+
+    if (remainingMillis < estimatedMillis) {
+      log.debug("rejecting request of tenant {}: estimated {}ms, remaining {}ms", tenantId, estimatedMillis, remainingMillis);
+      throw new OverloadedException(estimatedMillis, remainingMillis);
+    }
+  }
+
+  private void recordService(long nanos) {
+    serviceNanos.getAndUpdate(bits -> {
+      double current = Double.longBitsToDouble(bits);
+      double next = (current == 0) ? nanos : current + EWMA_ALPHA * (nanos - current);
+      return Double.doubleToLongBits(next);
+    });
+  }
+}
@@ -0,0 +1,193 @@
+package com.company.search.query;
+
+import com.company.common.ProfileFilter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Precomputed results of the hottest queries of each tenant (e.g. "I want to reset my password").
+ * Query frequencies are tracked per tenant, normalized query and user profile filter set
+ * (FILTER_BY_COUNTRY, ...), since the same question has different results for different profiles.
+ * The top N queries of a tenant seen at least minFrequency times (halved every refresh, rounding down)
+ * are materialized and refreshed in the background on a timer or after writes, tenants in
+ * parallel, so they are answered from memory without NLP or ES.
+ *
+ * @param <R> result record type
+ */
+@Slf4j
+public class MaterializedQueries<R> {
+
+  public static final int DEFAULT_TOP_N = 50;
+  public static final long DEFAULT_MIN_FREQUENCY = 10;
+  public static final long DEFAULT_REFRESH_SECONDS = 300;
+  public static final int DEFAULT_REFRESH_THREADS = 4;
+  static final int MAX_TRACKED = 100000;
+
+  private final Function<QueryKey, List<R>> loader;
+  private final int topN;
+  private final long minFrequency;
+  private final Map<QueryKey, LongAdder> frequencies = new ConcurrentHashMap<>();
+  private final Map<QueryKey, List<R>> materialized = new ConcurrentHashMap<>();
+  private final Set<String> staleTenants = ConcurrentHashMap.newKeySet();
+  private final ScheduledExecutorService refresher;
+  private final ExecutorService loaders;
+
+  /**
+   * @param loader runs the full search of the normalized query of the tenant, with the profile filters of the key
+   */
+  public MaterializedQueries(Function<QueryKey, List<R>> loader) {
+    this(loader, DEFAULT_TOP_N, DEFAULT_MIN_FREQUENCY, DEFAULT_REFRESH_SECONDS, DEFAULT_REFRESH_THREADS);
+  }
+
+  public MaterializedQueries(Function<QueryKey, List<R>> loader, int topN, long minFrequency, long refreshSeconds, int refreshThreads) {
+    this.loader = loader;
+    this.topN = topN;
+    this.minFrequency = minFrequency;
+    this.loaders = Executors.newFixedThreadPool(refreshThreads,
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("materialized-queries-loader-%d").build());
+    this.refresher = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("materialized-queries-%d").build());
+    this.refresher.scheduleWithFixedDelay(this::refreshQuietly, refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+  }
+
+  public static String normalize(String query) {
+    String normalized = StringUtils.defaultString(query).toLowerCase().replaceAll("[\\p{Punct}]", " ");
+    return StringUtils.normalizeSpace(normalized);
+  }
+
+  /**
+   * Counts the query and returns its materialized results if it is one of the tenant's hottest
+   *
+   * @param profileFilters values of the user's profile filters (SearchQuery.getProfileFilters())
+   */
+  public Optional<List<R>> lookup(String tenantId, String query, Map<ProfileFilter, ? extends Collection<String>> profileFilters) {
+    QueryKey key = QueryKey.of(tenantId, query, profileFilters);
+
+    if (frequencies.size() < MAX_TRACKED || frequencies.containsKey(key)) {
+      frequencies.computeIfAbsent(key, k -> new LongAdder()).increment();
+    }
+    return Optional.ofNullable(materialized.get(key));
+  }
+
+  /**
+   * The tenant's content changed, recompute its materialized results in the background
+   */
+  public void invalidateTenant(String tenantId) {
+    if (staleTenants.add(tenantId)) {
+      loaders.execute(() -> {
+        staleTenants.remove(tenantId);
+        this.refreshTenant(tenantId, this.topQueries().getOrDefault(tenantId, Collections.emptyList()));
+      });
+    }
+  }
+
+  public void destroy() {
+    refresher.shutdownNow();
+    loaders.shutdownNow();
+  }
+
+  void refreshQuietly() {
+    try {
+      Map<String, List<QueryKey>> topQueries = this.topQueries();
+
+      // queries that fell out of the top N
+      materialized.keySet().removeIf(key -> !topQueries.getOrDefault(key.tenantId, Collections.emptyList()).contains(key));
+
+      List<Callable<Void>> refreshes = new ArrayList<>();
+      topQueries.forEach((tenantId, keys) -> refreshes.add(() -> {
+        this.refreshTenant(tenantId, keys);
+        return null;
+      }));
+      loaders.invokeAll(refreshes);
+
+      // decay, so the top N follows current traffic; rounding the decrement up takes a count of 1
+      // to 0, so one-off queries are dropped instead of filling the table up to MAX_TRACKED
+      frequencies.values().forEach(count -> count.add(-((count.sum() + 1) / 2)));
+      frequencies.values().removeIf(count -> count.sum() == 0);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (Exception e) {
+      log.error("Failed to refresh materialized queries", e);
+    }
+  }
+
+  private Map<String, List<QueryKey>> topQueries() {
+    Map<String, List<Map.Entry<QueryKey, Long>>> byTenant = new HashMap<>();
+    frequencies.forEach((key, count) -> {
+      long sum = count.sum();
+      if (sum >= minFrequency) {
+        byTenant.computeIfAbsent(key.tenantId, tenantId -> new ArrayList<>()).add(new AbstractMap.SimpleEntry<>(key, sum));
+      }
+    });
+
+    Map<String, List<QueryKey>> topQueries = new HashMap<>();
+    byTenant.forEach((tenantId, counts) -> topQueries.put(tenantId, counts.stream()
+      .sorted(Map.Entry.<QueryKey, Long>comparingByValue().reversed())
+      .limit(topN)
+      .map(Map.Entry::getKey)
+      .collect(Collectors.toList())));
+    return topQueries;
+  }
+
+  private void refreshTenant(String tenantId, List<QueryKey> keys) {
+    for (QueryKey key : keys) {
+      try {
+        List<R> results = loader.apply(key);
+        materialized.put(key, Collections.unmodifiableList(results));
+      } catch (Exception e) {
+        // keep serving the previous results
+        log.error("Failed to materialize \"{}\" of tenant {}", key.query, tenantId, e);
+      }
+    }
+    log.debug("materialized {} queries of tenant {}", keys.size(), tenantId);
+  }
+
+  @Getter
+  @AllArgsConstructor(access = AccessLevel.PRIVATE)
+  @EqualsAndHashCode
+  public static class QueryKey {
+    private final String tenantId;
+    private final String query;
+    // canonical values by filter, filters without values left out
+    private final SortedMap<ProfileFilter, List<String>> profileFilters;
+
+    static QueryKey of(String tenantId, String query, Map<ProfileFilter, ? extends Collection<String>> profileFilters) {
+      SortedMap<ProfileFilter, List<String>> canonical = new TreeMap<>();
+      if (profileFilters != null) {
+        profileFilters.forEach((filter, values) -> {
+          List<String> canonicalValues = ProfileFilter.canonical(values);
+          if (!canonicalValues.isEmpty()) {
+            canonical.put(filter, canonicalValues);
+          }
+        });
+      }
+      return new QueryKey(tenantId, normalize(query), Collections.unmodifiableSortedMap(canonical));
+    }
+  }
+}
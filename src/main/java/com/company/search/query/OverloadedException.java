@@ -0,0 +1,21 @@
+package com.company.search.query;
+
+import lombok.Getter;
+
+/**
+ * Request rejected at admission, it would not complete before its deadline
+ */
+@Getter
+public class OverloadedException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final long estimatedMillis;
+  private final long remainingMillis;
+
+  public OverloadedException(long estimatedMillis, long remainingMillis) {
+    super("overloaded: estimated " + estimatedMillis + "ms, deadline in " + remainingMillis + "ms");
+    this.estimatedMillis = estimatedMillis;
+    this.remainingMillis = remainingMillis;
+  }
+}
@@ -6,6 +6,8 @@ import com.aisera.common.config.SystemConfig;
 import com.aisera.common.utils.TimerUtils;
 import com.aisera.modelSDK.IntentClassificationOutput;
 import com.aisera.nlp.INLPService;
+import com.company.common.SessionRequestTracker;
+import com.company.common.SingleFlight;
 import lombok.Builder;
 import lombok.Data;
 import lombok.ToString;
@@ -13,12 +15,21 @@ import org.apache.commons.lang3.StringUtils;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
 
 @Builder(toBuilder = true)
 @Data
 @ToString
 public class QueryObject {
+  // search-as-you-type: the in-flight query of each user session
+  private static final SessionRequestTracker sessions = new SessionRequestTracker();
+  // identical concurrent questions of a tenant share one NLP call
+  private static final SingleFlight<String, Question> nlpCalls = new SingleFlight<>();
+  private static final int MAX_NLP_ATTEMPTS = 3;
+
   String tenantId;
   Long botId;
   String userId;
@@ -38,21 +49,104 @@ public class QueryObject {
   private final AtomicBoolean isNlpCalled = new AtomicBoolean();
   boolean debugMode;
 
+  // epoch millis the results are needed by, requests that can't make it are shed at admission
+  Long deadlineMillis;
+
   // used for hyper-parameter optimisation
   String searchConfigOverride;
 
+  // set by startSession(), cancelled when a newer query of the same user arrives
+  SessionRequestTracker.Request sessionRequest;
+
   public Question getQuestion() {
     if (isNlpCalled.compareAndSet(false, true)) {
+      if (isSuperseded()) {
+        // a newer query of the session is running, skip NLP
+        question = Question.getDefaultInstance();
+        return question;
+      }
+
       TimerUtils tu = new TimerUtils(this.getClass().getCanonicalName(), "INLPService.process");
       INLPService extractor = INLPService.getSemanticExtractor();
-      //get Size limited Search String to limit nouns, entities and predicates, also reduce load on models
-      question = extractor.process(tenantId, getQuestionForNlpRequest());
-      tu.stop();
+      String key = tenantId + "\u0000" + StringUtils.defaultString(queryStr);
+      AtomicBoolean leading = new AtomicBoolean();
+      // a call other sessions wait for is left running, they need its result
+      NlpInterrupt interruptNlp = new NlpInterrupt(() -> leading.get() && nlpCalls.waiters(key) > 0);
+      if (sessionRequest != null) {
+        sessionRequest.onCancel(interruptNlp);
+      }
+      Supplier<Question> nlpCall = () -> {
+        leading.set(true);
+        try {
+          //get Size limited Search String to limit nouns, entities and predicates, also reduce load on models
+          Question processed = extractor.process(tenantId, getQuestionForNlpRequest());
+          if (!interruptNlp.isInterrupted()) {
+            return processed;
+          }
+        } catch (RuntimeException e) {
+          if (!isSuperseded()) {
+            throw e;
+          }
+          // may be caused by our interrupt, not by the question
+        }
+        // the queries waiting on this call retry it
+        throw new CancellationException("NLP call of a superseded query");
+      };
+      try {
+        for (int attempt = 0; attempt < MAX_NLP_ATTEMPTS && !isSuperseded(); attempt++) {
+          try {
+            leading.set(false);
+            question = nlpCalls.execute(key, nlpCall);
+            break;
+          } catch (CancellationException e) {
+            // the shared call was abandoned by a query superseded in its own session
+          }
+        }
+      } finally {
+        if (sessionRequest != null) {
+          sessionRequest.removeOnCancel(interruptNlp);
+          interruptNlp.finish();
+        }
+        tu.stop();
+      }
+      if (question == null || isSuperseded()) {
+        question = Question.getDefaultInstance();
+      }
     }
 
     return question;
   }
 
+  /**
+   * Registers this query as the latest one of the user's session, cancelling the query it supersedes.
+   * Callers check isSuperseded() between NLP and search layers and drop superseded results.
+   */
+  public void startSession() {
+    if (StringUtils.isNotEmpty(userId)) {
+      sessionRequest = sessions.begin(tenantId + "/" + userId);
+    }
+  }
+
+  public void endSession() {
+    if (sessionRequest != null) {
+      sessions.end(sessionRequest);
+    }
+  }
+
+  public boolean isSuperseded() {
+    return (sessionRequest != null) && sessionRequest.isCancelled();
+  }
+
+  /**
+   * Builder of an ES search (ESSearchImpl) of this query, in the query's session: a newer query
+   * of the user cancels the search's ES tasks
+   */
+  public com.company.common.SearchQuery.SearchQueryBuilder searchQueryBuilder() {
+    return com.company.common.SearchQuery.builder()
+      .sessionRequest(sessionRequest)
+      .debugMode(debugMode);
+  }
+
   private Question getQuestionForNlpRequest() {
     String searchStr = StringUtils.isNotEmpty(queryStr) ? queryStr : "";
     return Question.newBuilder().setText(searchStr).build();
@@ -61,4 +155,41 @@ public class QueryObject {
   public int getMaxResults() {
     return queryConfig.getMaxSearchResults();
   }
+
+  /**
+   * Cancel hook interrupting the NLP call on its thread, unless the call is shared with other sessions.
+   * The hook may run on the cancelling thread at any time, finish() makes sure it can't interrupt the
+   * thread once the NLP call is over and clears the interrupt it caused, so neither leaks to the rest
+   * of the request.
+   */
+  private static class NlpInterrupt implements Runnable {
+    private final Thread nlpThread = Thread.currentThread();
+    private final BooleanSupplier shared;
+    // guarded by this
+    private boolean finished;
+    private boolean interrupted;
+
+    NlpInterrupt(BooleanSupplier shared) {
+      this.shared = shared;
+    }
+
+    @Override
+    public synchronized void run() {
+      if (!finished && !shared.getAsBoolean()) {
+        interrupted = true;
+        nlpThread.interrupt();
+      }
+    }
+
+    synchronized boolean isInterrupted() {
+      return interrupted;
+    }
+
+    synchronized void finish() {
+      finished = true;
+      if (interrupted) {
+        Thread.interrupted();
+      }
+    }
+  }
 }
@@ -9,6 +9,16 @@ public class SearchClient {
 
   private static ISearch client = null;
 
+  // shared by all tenants, requests are admitted in weighted fair order per tenant
+  private static final TenantFairScheduler scheduler = new TenantFairScheduler();
+
+  // sheds requests that would miss their deadline, estimating their wait in the scheduler
+  private static final AdmissionController admission = new AdmissionController(scheduler);
+
+  public interface SearchCall<T> {
+    T call(ISearch client) throws Exception;
+  }
+
   public static synchronized ISearch getClient() throws Exception {
     // return the right impl based on the deployment
     if (client == null) {
@@ -19,4 +29,25 @@ public class SearchClient {
 
     return client;
   }
+
+  public static TenantFairScheduler getScheduler() {
+    return scheduler;
+  }
+
+  /**
+   * Runs the call against the search client once the tenant's turn comes, e.g. with QueryObject.getTenantId()
+   */
+  public static <T> T execute(String tenantId, SearchCall<T> call) throws Exception {
+    ISearch search = getClient();
+    return scheduler.execute(tenantId, () -> call.call(search));
+  }
+
+  /**
+   * Entry point for search/enterpriseSearch of a query: rejects with OverloadedException when the
+   * query's deadline can't be met, otherwise runs it in the tenant's fair share
+   */
+  public static <T> T execute(QueryObject queryObject, SearchCall<T> call) throws Exception {
+    ISearch search = getClient();
+    return admission.execute(queryObject.getTenantId(), queryObject.getDeadlineMillis(), () -> call.call(search));
+  }
 }
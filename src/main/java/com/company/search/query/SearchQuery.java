@@ -11,6 +11,7 @@ import com.aisera.nlp.wordnet.WordBoundary;
 import com.aisera.tenant.client.BotClient;
 import com.aisera.tenant.dto.BotDTO;
 import com.aisera.userprofile.client.UpsGrpcClient;
+import com.company.common.ProfileFilter;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
@@ -183,6 +184,29 @@ public class SearchQuery {
     return department;
   }
 
+  /**
+   * FILTER_BY_COUNTRY / FILTER_BY_LOCATION / FILTER_BY_DEPARTMENT values of the user profile
+   */
+  public Map<ProfileFilter, List<String>> getProfileFilters() {
+    Map<ProfileFilter, List<String>> profileFilters = new EnumMap<>(ProfileFilter.class);
+    profileFilters.put(ProfileFilter.FILTER_BY_COUNTRY, ProfileFilter.canonical(getCountries()));
+    profileFilters.put(ProfileFilter.FILTER_BY_LOCATION, ProfileFilter.canonical(getLocations()));
+    profileFilters.put(ProfileFilter.FILTER_BY_DEPARTMENT,
+      ProfileFilter.canonical((getDepartment() != null) ? Collections.singletonList(getDepartment()) : null));
+    profileFilters.values().removeIf(List::isEmpty);
+    return profileFilters;
+  }
+
+  /**
+   * Builder of an ES search (ESSearchImpl) of the query's indexes in the query's session, filtered
+   * by the user profile
+   */
+  public com.company.common.SearchQuery.SearchQueryBuilder searchQueryBuilder() {
+    return getQueryObject().searchQueryBuilder()
+      .indexes(indexes)
+      .profileFilters(getProfileFilters());
+  }
+
 
   ///////
 
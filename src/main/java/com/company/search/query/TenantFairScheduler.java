@@ -0,0 +1,194 @@
+package com.company.search.query;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Weighted fair queuing of search requests per tenant (start-time fair queuing).
+ * Each request gets a virtual start tag max(virtual time, tenant's last finish tag) and a finish
+ * tag start + 1/weight; the queued request with the lowest start tag runs next, skipping tenants
+ * at their concurrency cap. A bursting tenant only queues behind itself.
+ * Requests without a tenant id share one default tenant.
+ */
+@Slf4j
+public class TenantFairScheduler {
+
+  public static final int DEFAULT_CONCURRENCY = 32;
+  public static final int DEFAULT_TENANT_CONCURRENCY = 8;
+  public static final double DEFAULT_WEIGHT = 1.0;
+  private static final String DEFAULT_TENANT = "";
+
+  private final int concurrency;
+  private final Map<String, Double> weights = new ConcurrentHashMap<>();
+  private final Map<String, Integer> tenantConcurrency = new ConcurrentHashMap<>();
+
+  // guarded by this
+  private final Map<String, TenantQueue> tenants = new HashMap<>();
+  private double virtualTime;
+  private int running;
+
+  public TenantFairScheduler() {
+    this(DEFAULT_CONCURRENCY);
+  }
+
+  public TenantFairScheduler(int concurrency) {
+    this.concurrency = concurrency;
+  }
+
+  public void setWeight(String tenantId, double weight) {
+    if (weight <= 0) {
+      throw new IllegalArgumentException("tenant weight must be positive: " + weight);
+    }
+    weights.put(key(tenantId), weight);
+  }
+
+  public void setConcurrency(String tenantId, int maxConcurrent) {
+    tenantConcurrency.put(key(tenantId), Math.max(1, maxConcurrent));
+  }
+
+  /**
+   * Waits for the tenant's turn, then runs the call on the calling thread
+   */
+  public <T> T execute(String tenantId, Callable<T> call) throws Exception {
+    Ticket ticket = this.enqueue(key(tenantId));
+
+    try {
+      ticket.admitted.await();
+    } catch (InterruptedException e) {
+      this.abandon(ticket);
+      throw e;
+    }
+
+    try {
+      return call.call();
+    } finally {
+      this.release(ticket);
+    }
+  }
+
+  /**
+   * Estimated wait of a new request of the tenant, in service times: the requests queued ahead of it
+   * in fair order share the global slots and the tenant's own requests share its concurrency cap,
+   * so another tenant's backlog only counts as far as it is ahead of this tenant. 0 if it would run
+   * right away.
+   */
+  public synchronized double getWaitTurns(String tenantId) {
+    String key = key(tenantId);
+    TenantQueue tenant = tenants.get(key);
+    double start = (tenant != null) ? Math.max(virtualTime, tenant.lastFinish) : virtualTime;
+
+    int ahead = 0;
+    for (TenantQueue queued : tenants.values()) {
+      // pending tickets of a tenant are in start tag order
+      for (Ticket ticket : queued.pending) {
+        if (ticket.start >= start) {
+          break;
+        }
+        ahead++;
+      }
+    }
+    double turns = (ahead > 0 || running >= concurrency) ? (double) (ahead + 1) / concurrency : 0;
+
+    if (tenant != null) {
+      int cap = tenantConcurrency.getOrDefault(key, DEFAULT_TENANT_CONCURRENCY);
+      int ownAhead = tenant.running + tenant.pending.size() - cap + 1;
+      if (ownAhead > 0) {
+        turns = Math.max(turns, (double) ownAhead / cap);
+      }
+    }
+    return turns;
+  }
+
+  private synchronized Ticket enqueue(String tenantId) {
+    TenantQueue tenant = tenants.computeIfAbsent(tenantId, TenantQueue::new);
+    double start = Math.max(virtualTime, tenant.lastFinish);
+    Ticket ticket = new Ticket(tenant, start);
+
+    tenant.lastFinish = start + 1.0 / weights.getOrDefault(tenantId, DEFAULT_WEIGHT);
+    tenant.pending.addLast(ticket);
+    this.dispatch();
+
+    return ticket;
+  }
+
+  private synchronized void release(Ticket ticket) {
+    running--;
+    ticket.tenant.running--;
+    this.removeIfIdle(ticket.tenant);
+    this.dispatch();
+  }
+
+  private synchronized void abandon(Ticket ticket) {
+    if (ticket.admitted.getCount() == 0) {
+      // admitted while being interrupted
+      this.release(ticket);
+    } else {
+      ticket.tenant.pending.remove(ticket);
+      this.removeIfIdle(ticket.tenant);
+    }
+  }
+
+  private void dispatch() {
+    while (running < concurrency) {
+      TenantQueue next = null;
+      for (TenantQueue tenant : tenants.values()) {
+        if (tenant.pending.isEmpty() || tenant.running >= tenantConcurrency.getOrDefault(tenant.tenantId, DEFAULT_TENANT_CONCURRENCY)) {
+          continue;
+        }
+        if (next == null || tenant.pending.peekFirst().start < next.pending.peekFirst().start) {
+          next = tenant;
+        }
+      }
+      if (next == null) {
+        return;
+      }
+
+      Ticket ticket = next.pending.pollFirst();
+      virtualTime = Math.max(virtualTime, ticket.start);
+      running++;
+      next.running++;
+      ticket.admitted.countDown();
+    }
+  }
+
+  private void removeIfIdle(TenantQueue tenant) {
+    // a returning tenant starts at the current virtual time. Its finish tag is at most one request
+    // ahead of it once its requests ran, or ahead by requests it abandoned without using any share
+    if (tenant.running == 0 && tenant.pending.isEmpty()) {
+      tenants.remove(tenant.tenantId);
+    }
+  }
+
+  private static String key(String tenantId) {
+    // ConcurrentHashMap doesn't take null keys
+    return (tenantId == null) ? DEFAULT_TENANT : tenantId;
+  }
+
+  private static class TenantQueue {
+    private final String tenantId;
+    private final ArrayDeque<Ticket> pending = new ArrayDeque<>();
+    private double lastFinish;
+    private int running;
+
+    TenantQueue(String tenantId) {
+      this.tenantId = tenantId;
+    }
+  }
+
+  private static class Ticket {
+    private final TenantQueue tenant;
+    private final double start;
+    private final CountDownLatch admitted = new CountDownLatch(1);
+
+    Ticket(TenantQueue tenant, double start) {
+      this.tenant = tenant;
+      this.start = start;
+    }
+  }
+}
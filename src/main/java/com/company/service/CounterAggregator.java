@@ -0,0 +1,250 @@
+package com.company.service;
+
+import com.company.common.ISearch;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.rest.RestStatus;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Write-behind aggregation of counter updates (sold, in_stock, ...).
+ * Increments are merged per (index, id, field) and flushed on a schedule as batched scripted updates,
+ * so a hot product costs one write per flush interval instead of one per increment.
+ * Scripted increments are not idempotent: only deltas that were definitely not applied (rejected,
+ * conflicting, not sent) are retried, deltas of updates that may have been applied (timeouts,
+ * disconnects) are logged and dropped rather than risk counting them twice.
+ *
+ * Call destroy() before destroying the ISearch, it flushes what is still pending.
+ */
+@Slf4j
+public class CounterAggregator {
+
+  public static final long DEFAULT_FLUSH_MILLIS = 1000;
+  private static final int MAX_FINAL_FLUSHES = 5;
+
+  private final ISearch search;
+  private final ConcurrentHashMap<CounterKey, StripedCounter> counters = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService scheduler;
+  private final long flushMillis;
+  private volatile boolean destroyed;
+
+  public CounterAggregator(ISearch search) {
+    this(search, DEFAULT_FLUSH_MILLIS);
+  }
+
+  public CounterAggregator(ISearch search, long flushMillis) {
+    this.search = search;
+    this.flushMillis = flushMillis;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("counter-flush-%d").build());
+    this.scheduler.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+  }
+
+  public void increment(String indexName, String id, String field, long delta) {
+    if (destroyed) {
+      throw new IllegalStateException("counter aggregator is destroyed");
+    }
+    this.add(new CounterKey(indexName, id, field), delta);
+    if (destroyed) {
+      // raced with destroy(), whose final flush may have drained the counter before our add
+      this.flushPending();
+    }
+  }
+
+  /**
+   * Sends all pending deltas, one batched update per index. Deltas of items that definitely
+   * failed are merged back and sent with the next flush.
+   */
+  public void flush() {
+    this.flushPending();
+  }
+
+  /**
+   * @return true if deltas were merged back for a retry
+   */
+  private synchronized boolean flushPending() {
+    Map<String, Map<String, Map<String, Long>>> pending = new HashMap<>();
+
+    counters.forEach((key, counter) -> {
+      long delta = counter.drain();
+      if (delta == 0 && counters.remove(key, counter)) {
+        // idle since the last flush; increments racing with the removal are moved to a new counter
+        counter.retire();
+        delta = counter.drain();
+      }
+      if (delta != 0) {
+        pending.computeIfAbsent(key.indexName, indexName -> new HashMap<>())
+          .computeIfAbsent(key.id, id -> new HashMap<>())
+          .put(key.field, delta);
+      }
+    });
+
+    boolean requeued = false;
+    for (Map.Entry<String, Map<String, Map<String, Long>>> index : pending.entrySet()) {
+      String indexName = index.getKey();
+      Map<String, Map<String, Long>> deltas = index.getValue();
+      BulkResponse response;
+      try {
+        // a batch failing as a whole comes back as failed items, only those are retried
+        response = search.increment(indexName, deltas);
+      } catch (RejectedExecutionException e) {
+        log.warn("Counter flush to {} rejected, retrying with next flush: {}", indexName, e.getMessage());
+        deltas.forEach((id, fields) -> this.requeue(indexName, id, fields));
+        requeued = true;
+        continue;
+      } catch (Exception e) {
+        // the updates may have been applied, a retry could count them twice
+        log.error("Failed to flush counters to {}", indexName, e);
+        deltas.forEach((id, fields) -> log.error("Dropping counter deltas {} of {}/{}", fields, indexName, id));
+        continue;
+      }
+
+      if (response.hasFailures()) {
+        for (BulkItemResponse item : response.getItems()) {
+          if (item.isFailed()) {
+            requeued |= this.onFailure(indexName, item, deltas.get(item.getId()));
+          }
+        }
+      }
+      log.debug("flushed counters of {} documents to {}", deltas.size(), indexName);
+    }
+    return requeued;
+  }
+
+  /**
+   * Stops accepting increments and the scheduled flushes, then flushes until nothing is pending.
+   * Deltas still failing after MAX_FINAL_FLUSHES are logged and dropped.
+   */
+  public void destroy() {
+    destroyed = true;
+    scheduler.shutdown();
+    try {
+      scheduler.awaitTermination(1, TimeUnit.MINUTES);
+      for (int attempt = 1; this.flushPending(); attempt++) {
+        if (attempt == MAX_FINAL_FLUSHES) {
+          this.dropPending();
+          break;
+        }
+        Thread.sleep(flushMillis);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      this.dropPending();
+    }
+  }
+
+  /**
+   * Number of counters in use, idle ones are dropped by the next flush
+   */
+  int tracked() {
+    return counters.size();
+  }
+
+  private void flushQuietly() {
+    try {
+      this.flush();
+    } catch (Exception e) {
+      log.error("Counter flush failed", e);
+    }
+  }
+
+  private void dropPending() {
+    counters.forEach((key, counter) -> {
+      long delta = counter.drain();
+      if (delta != 0) {
+        log.error("Dropping counter delta {} of {}/{} {}", delta, key.indexName, key.id, key.field);
+      }
+    });
+  }
+
+  /**
+   * Retries only updates that were definitely not applied: rejected (429), failed on a version
+   * conflict (409) or not sent (503 no node available). Other failures, e.g. a timed out batch
+   * (500), may have been applied.
+   *
+   * @return true if the deltas were merged back for a retry
+   */
+  private boolean onFailure(String indexName, BulkItemResponse item, Map<String, Long> fields) {
+    RestStatus status = item.getFailure().getStatus();
+
+    if (status == RestStatus.TOO_MANY_REQUESTS || status == RestStatus.CONFLICT || status == RestStatus.SERVICE_UNAVAILABLE) {
+      this.requeue(indexName, item.getId(), fields);
+      return true;
+    }
+    log.error("Dropping counter deltas {} of {}/{}: {}", fields, indexName, item.getId(), item.getFailureMessage());
+    return false;
+  }
+
+  private void requeue(String indexName, String id, Map<String, Long> fields) {
+    if (fields != null) {
+      fields.forEach((field, delta) -> this.add(new CounterKey(indexName, id, field), delta));
+    }
+  }
+
+  private void add(CounterKey key, long delta) {
+    StripedCounter counter = counters.computeIfAbsent(key, k -> new StripedCounter());
+    counter.add(delta);
+    if (counter.isRetired()) {
+      // removed by a flush that may have drained it before our add
+      long left = counter.drain();
+      if (left != 0) {
+        this.add(key, left);
+      }
+    }
+  }
+
+  @AllArgsConstructor
+  @EqualsAndHashCode
+  private static class CounterKey {
+    private final String indexName;
+    private final String id;
+    private final String field;
+  }
+
+  /**
+   * Lock-free counter striped over padded cells by thread, so concurrent writers of a hot key
+   * don't contend on one cache line. drain() swaps every cell to zero, no increment is lost.
+   * A retired counter was removed from the map, its writers move their delta to a new one.
+   */
+  private static class StripedCounter {
+    // 8 longs = 64 bytes between two cells in use
+    private static final int PADDING = 8;
+    private static final int STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+    private volatile boolean retired;
+
+    void add(long delta) {
+      int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+      cells.getAndAdd(stripe * PADDING, delta);
+    }
+
+    void retire() {
+      retired = true;
+    }
+
+    boolean isRetired() {
+      return retired;
+    }
+
+    long drain() {
+      long sum = 0;
+      for (int stripe = 0; stripe < STRIPES; stripe++) {
+        sum += cells.getAndSet(stripe * PADDING, 0);
+      }
+      return sum;
+    }
+  }
+}
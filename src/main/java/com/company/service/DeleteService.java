@@ -1,8 +1,8 @@
 package com.company.service;
 
-import org.elasticsearch.action.bulk.BulkResponse;
+import com.company.common.WriteVisibility;
+import com.company.es.RefreshCoalescer;
 import org.elasticsearch.action.delete.DeleteResponse;
-import org.elasticsearch.action.support.WriteRequest;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.reindex.BulkByScrollResponse;
@@ -15,14 +15,32 @@ import org.elasticsearch.index.reindex.DeleteByQueryAction;
 public class DeleteService {
   Client client;
   String indexName;
+  WriteVisibility visibility;
+  RefreshCoalescer refreshCoalescer;
 
   public DeleteService(Client client, String indexName) {
+    this(client, indexName, WriteVisibility.WAIT_FOR_REFRESH, null);
+  }
+
+  /**
+   * @param refreshCoalescer shared refresh of the index, needed by VISIBLE_WITHIN
+   */
+  public DeleteService(Client client, String indexName, WriteVisibility visibility, RefreshCoalescer refreshCoalescer) {
+    if (visibility == WriteVisibility.VISIBLE_WITHIN && refreshCoalescer == null) {
+      throw new IllegalArgumentException("VISIBLE_WITHIN needs a RefreshCoalescer");
+    }
+
     this.client = client;
     this.indexName = indexName;
+    this.visibility = visibility;
+    this.refreshCoalescer = refreshCoalescer;
   }
 
   public DeleteResponse delete(String id) {
-    return client.prepareDelete(indexName, "default", id).setRefreshPolicy(WriteRequest.RefreshPolicy.WAIT_UNTIL).get();
+    DeleteResponse response = client.prepareDelete(indexName, "default", id).setRefreshPolicy(visibility.getRefreshPolicy()).get();
+    this.afterWrite();
+
+    return response;
   }
 
   public BulkByScrollResponse deleteByQuery(String description) {
@@ -30,9 +48,17 @@ public class DeleteService {
       DeleteByQueryAction.INSTANCE.newRequestBuilder(client)
         .filter(QueryBuilders.matchPhraseQuery("description", description))
         .source(indexName)
-        .refresh(true)
+        // delete by query can't wait for a refresh, it can only force one
+        .refresh(visibility == WriteVisibility.WAIT_FOR_REFRESH)
         .get();
+    this.afterWrite();
 
     return response;
   }
+
+  private void afterWrite() {
+    if (refreshCoalescer != null) {
+      refreshCoalescer.afterWrite(indexName, visibility);
+    }
+  }
 }
@@ -0,0 +1,225 @@
+package com.company.service;
+
+import com.company.common.ISearch;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Syncs an index with a full snapshot of a source (e.g. article-data.json) by sending only the
+ * documents that changed since the previous sync. A manifest file keeps the content hash of each
+ * document id last synced; new and changed documents are indexed, ids missing from the snapshot
+ * are deleted. Failed items stay out of the manifest so the next sync retries them.
+ *
+ * The hash is murmur3 of the document as canonical JSON (keys sorted at every level), so
+ * reformatting or reordering fields in the source is not a change.
+ */
+@Slf4j
+public class DeltaSync {
+
+  private static final HashFunction hashFunction = Hashing.murmur3_128();
+  private static final int BATCH_SIZE = 1000;
+
+  private final ISearch search;
+  private final String indexName;
+  private final String type;
+  private final String idField;
+  private final Path manifestFile;
+
+  public DeltaSync(ISearch search, String indexName, String idField, Path manifestFile) {
+    this(search, indexName, "default", idField, manifestFile);
+  }
+
+  /**
+   * @param idField document field holding the document id
+   */
+  public DeltaSync(ISearch search, String indexName, String type, String idField, Path manifestFile) {
+    this.search = search;
+    this.indexName = indexName;
+    this.type = type;
+    this.idField = idField;
+    this.manifestFile = manifestFile;
+  }
+
+  /**
+   * @param docs every document of the source, as JSON objects
+   */
+  public Result sync(Iterable<String> docs) throws IOException {
+    Map<String, String> manifest = this.readManifest();
+    Map<String, String> synced = new HashMap<>(manifest);
+    Map<String, String> seen = new HashMap<>();
+    Map<String, String> changed = new LinkedHashMap<>();
+    Map<String, String> changedHashes = new HashMap<>();
+    Result result = new Result();
+
+    for (String doc : docs) {
+      Object parsed = JSONValue.parse(doc);
+      Object id = (parsed instanceof JSONObject) ? ((JSONObject) parsed).get(idField) : null;
+      if (id == null) {
+        log.warn("skipping document without {}: {}", idField, doc);
+        result.skipped++;
+        continue;
+      }
+
+      String hash = hash(parsed);
+      seen.put(id.toString(), hash);
+      if (!hash.equals(manifest.get(id.toString()))) {
+        changed.put(id.toString(), doc);
+        changedHashes.put(id.toString(), hash);
+        if (changed.size() >= BATCH_SIZE) {
+          this.index(changed, changedHashes, synced, result);
+        }
+      } else {
+        result.unchanged++;
+      }
+    }
+    this.index(changed, changedHashes, synced, result);
+
+    List<String> removed = new ArrayList<>();
+    manifest.keySet().stream().filter(id -> !seen.containsKey(id)).forEach(removed::add);
+    for (int from = 0; from < removed.size(); from += BATCH_SIZE) {
+      BulkResponse response = search.delete(indexName, type, removed.subList(from, Math.min(from + BATCH_SIZE, removed.size())));
+      for (BulkItemResponse item : response.getItems()) {
+        if (item.isFailed()) {
+          result.failed++;
+        } else if (item.getResponse().getResult() == DocWriteResponse.Result.NOT_FOUND) {
+          // synced documents exist, a miss means the delete went to the wrong place (type, routing)
+          log.warn("document {} of the manifest not found in {}/{}, keeping it for the next sync", item.getId(), indexName, type);
+          result.failed++;
+        } else {
+          synced.remove(item.getId());
+          result.deleted++;
+        }
+      }
+    }
+
+    this.writeManifest(synced);
+    log.info("delta sync of {}: {}", indexName, result);
+    return result;
+  }
+
+  /**
+   * Hash of the document's canonical JSON
+   */
+  public static String hash(Object json) {
+    StringBuilder canonical = new StringBuilder();
+    appendCanonical(canonical, json);
+    return hashFunction.hashString(canonical, StandardCharsets.UTF_8).toString();
+  }
+
+  private void index(Map<String, String> changed, Map<String, String> changedHashes, Map<String, String> synced, Result result) {
+    if (changed.isEmpty()) {
+      return;
+    }
+
+    BulkResponse response = search.index(indexName, type, changed);
+    for (BulkItemResponse item : response.getItems()) {
+      if (item.isFailed()) {
+        result.failed++;
+      } else {
+        synced.put(item.getId(), changedHashes.get(item.getId()));
+        result.indexed++;
+      }
+    }
+    changed.clear();
+    changedHashes.clear();
+  }
+
+  private static void appendCanonical(StringBuilder canonical, Object json) {
+    if (json instanceof Map) {
+      canonical.append('{');
+      boolean first = true;
+      for (Map.Entry<?, ?> entry : new TreeMap<>((Map<?, ?>) json).entrySet()) {
+        if (!first) {
+          canonical.append(',');
+        }
+        first = false;
+        canonical.append(JSONValue.toJSONString(entry.getKey().toString())).append(':');
+        appendCanonical(canonical, entry.getValue());
+      }
+      canonical.append('}');
+    } else if (json instanceof List) {
+      canonical.append('[');
+      boolean first = true;
+      for (Object element : (List<?>) json) {
+        if (!first) {
+          canonical.append(',');
+        }
+        first = false;
+        appendCanonical(canonical, element);
+      }
+      canonical.append(']');
+    } else {
+      canonical.append(JSONValue.toJSONString(json));
+    }
+  }
+
+  /**
+   * One "id\thash" line per document
+   */
+  private Map<String, String> readManifest() throws IOException {
+    Map<String, String> manifest = new HashMap<>();
+    if (!Files.exists(manifestFile)) {
+      return manifest;
+    }
+
+    try (BufferedReader reader = Files.newBufferedReader(manifestFile, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int tab = line.lastIndexOf('\t');
+        if (tab > 0) {
+          manifest.put(line.substring(0, tab), line.substring(tab + 1));
+        }
+      }
+    }
+    return manifest;
+  }
+
+  private void writeManifest(Map<String, String> manifest) throws IOException {
+    Path tmp = Paths.get(manifestFile + ".tmp");
+    try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+      for (Map.Entry<String, String> entry : manifest.entrySet()) {
+        writer.write(entry.getKey());
+        writer.write('\t');
+        writer.write(entry.getValue());
+        writer.newLine();
+      }
+    }
+    Files.move(tmp, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  @Getter
+  public static class Result {
+    private int indexed;
+    private int deleted;
+    private int unchanged;
+    private int skipped;
+    private int failed;
+
+    @Override
+    public String toString() {
+      return indexed + " indexed, " + deleted + " deleted, " + unchanged + " unchanged, " + skipped + " skipped, " + failed + " failed";
+    }
+  }
+}
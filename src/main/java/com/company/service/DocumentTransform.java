@@ -0,0 +1,20 @@
+package com.company.service;
+
+import java.util.Map;
+
+/**
+ * Normalizes, enriches or validates a parsed document in place before it is indexed.
+ * Throwing IllegalArgumentException rejects the document.
+ */
+@FunctionalInterface
+public interface DocumentTransform {
+
+  void apply(Map<String, Object> doc);
+
+  default DocumentTransform andThen(DocumentTransform next) {
+    return doc -> {
+      this.apply(doc);
+      next.apply(doc);
+    };
+  }
+}
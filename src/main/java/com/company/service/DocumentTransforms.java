@@ -0,0 +1,133 @@
+package com.company.service;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Built-in document transforms
+ */
+public class DocumentTransforms {
+
+  private static final List<DateTimeFormatter> DATE_FORMATS = Arrays.asList(
+    DateTimeFormatter.ISO_LOCAL_DATE,
+    DateTimeFormatter.ofPattern("yyyy/MM/dd"),
+    DateTimeFormatter.ofPattern("MM/dd/yyyy"),
+    DateTimeFormatter.ofPattern("dd.MM.yyyy"));
+
+  private DocumentTransforms() {
+  }
+
+  /**
+   * Transforms of the annotated-products documents: lowercase tags, ISO created date, numeric
+   * price, in_stock and sold (AnnotatedProductsMain sends them as strings)
+   */
+  public static DocumentTransform products() {
+    return lowercase("tags")
+      .andThen(parseDate("created"))
+      .andThen(toDouble("price"))
+      .andThen(toLong("in_stock"))
+      .andThen(toLong("sold"));
+  }
+
+  /**
+   * Lowercases a string field or the strings of a list field
+   */
+  public static DocumentTransform lowercase(String field) {
+    return doc -> {
+      Object value = doc.get(field);
+      if (value instanceof String) {
+        doc.put(field, ((String) value).toLowerCase(Locale.ROOT));
+      } else if (value instanceof Collection) {
+        List<Object> lowercased = new ArrayList<>();
+        for (Object element : (Collection<?>) value) {
+          lowercased.add((element instanceof String) ? ((String) element).toLowerCase(Locale.ROOT) : element);
+        }
+        doc.put(field, lowercased);
+      }
+    };
+  }
+
+  /**
+   * Rewrites a date in any of DATE_FORMATS as yyyy-MM-dd
+   */
+  public static DocumentTransform parseDate(String field) {
+    return doc -> {
+      Object value = doc.get(field);
+      if (!(value instanceof String)) {
+        return;
+      }
+
+      String text = ((String) value).trim();
+      for (DateTimeFormatter format : DATE_FORMATS) {
+        try {
+          doc.put(field, LocalDate.parse(text, format).toString());
+          return;
+        } catch (DateTimeParseException e) {
+          // try the next format
+        }
+      }
+      throw new IllegalArgumentException(field + " is not a date: " + value);
+    };
+  }
+
+  public static DocumentTransform toLong(String field) {
+    return doc -> {
+      Object value = doc.get(field);
+      if (value instanceof String) {
+        doc.put(field, parseLong(field, (String) value));
+      } else if (value instanceof Number && !(value instanceof Long)) {
+        doc.put(field, ((Number) value).longValue());
+      }
+    };
+  }
+
+  public static DocumentTransform toDouble(String field) {
+    return doc -> {
+      Object value = doc.get(field);
+      if (value instanceof String) {
+        doc.put(field, parseDouble(field, (String) value));
+      } else if (value instanceof Number) {
+        doc.put(field, ((Number) value).doubleValue());
+      }
+    };
+  }
+
+  /**
+   * Rejects documents missing any of the fields
+   */
+  public static DocumentTransform required(String... fields) {
+    return doc -> {
+      for (String field : fields) {
+        Object value = doc.get(field);
+        if (value == null || (value instanceof String && StringUtils.isBlank((String) value))) {
+          throw new IllegalArgumentException("missing " + field);
+        }
+      }
+    };
+  }
+
+  private static long parseLong(String field, String value) {
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      // "2.0"
+      return (long) parseDouble(field, value);
+    }
+  }
+
+  private static double parseDouble(String field, String value) {
+    try {
+      return Double.parseDouble(value.trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(field + " is not a number: " + value);
+    }
+  }
+}
@@ -1,9 +1,10 @@
 package com.company.service;
 
+import com.company.common.WriteVisibility;
+import com.company.es.RefreshCoalescer;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.index.IndexResponse;
-import org.elasticsearch.action.support.WriteRequest;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.xcontent.XContentType;
 
@@ -12,20 +13,47 @@ import java.util.List;
 public class IngestService {
   Client client;
   String indexName;
+  WriteVisibility visibility;
+  RefreshCoalescer refreshCoalescer;
 
   public IngestService(Client client, String indexName) {
+    this(client, indexName, WriteVisibility.WAIT_FOR_REFRESH, null);
+  }
+
+  /**
+   * @param refreshCoalescer shared refresh of the index, needed by VISIBLE_WITHIN
+   */
+  public IngestService(Client client, String indexName, WriteVisibility visibility, RefreshCoalescer refreshCoalescer) {
+    if (visibility == WriteVisibility.VISIBLE_WITHIN && refreshCoalescer == null) {
+      throw new IllegalArgumentException("VISIBLE_WITHIN needs a RefreshCoalescer");
+    }
+
     this.client = client;
     this.indexName = indexName;
+    this.visibility = visibility;
+    this.refreshCoalescer = refreshCoalescer;
   }
 
   public IndexResponse ingest(String type, String doc) {
-    return client.prepareIndex(indexName, type).setSource(doc, XContentType.JSON).setRefreshPolicy(WriteRequest.RefreshPolicy.WAIT_UNTIL).get();
+    IndexResponse response = client.prepareIndex(indexName, type).setSource(doc, XContentType.JSON).setRefreshPolicy(visibility.getRefreshPolicy()).get();
+    this.afterWrite();
+
+    return response;
   }
 
   public BulkResponse ingest(String type, List<String> docs) {
     BulkRequestBuilder bulkRequest = client.prepareBulk();
-    docs.forEach(doc -> bulkRequest.add(client.prepareIndex(indexName, type).setSource(doc, XContentType.JSON)).get());
+    docs.forEach(doc -> bulkRequest.add(client.prepareIndex(indexName, type).setSource(doc, XContentType.JSON)));
+
+    BulkResponse response = bulkRequest.setRefreshPolicy(visibility.getRefreshPolicy()).get();
+    this.afterWrite();
+
+    return response;
+  }
 
-    return bulkRequest.setRefreshPolicy(WriteRequest.RefreshPolicy.WAIT_UNTIL).get();
+  private void afterWrite() {
+    if (refreshCoalescer != null) {
+      refreshCoalescer.afterWrite(indexName, visibility);
+    }
   }
 }
@@ -0,0 +1,186 @@
+package com.company.service;
+
+import com.company.es.IngestPipeline;
+import lombok.extern.slf4j.Slf4j;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs document transforms in parallel on a work-stealing pool and hands the transformed
+ * documents to an ingest pipeline, keeping parsing and enrichment off the caller and bulk threads.
+ * Batches are split into tasks of SPLIT_THRESHOLD documents that idle workers steal; each worker
+ * reuses its own parser and output buffer. Submitting blocks once maxPendingBatches are queued.
+ * Handing a document to the pipeline blocks while its bulk requests are all in flight, the pool
+ * is told (managedBlock) so that it can keep transforming on compensating threads.
+ */
+@Slf4j
+public class PreprocessingStage {
+
+  private static final int SPLIT_THRESHOLD = 64;
+
+  // json-simple parsers are not thread safe, one per worker
+  private static final ThreadLocal<JSONParser> parsers = ThreadLocal.withInitial(JSONParser::new);
+  private static final ThreadLocal<StringWriter> buffers = ThreadLocal.withInitial(() -> new StringWriter(4096));
+
+  private final IngestPipeline pipeline;
+  private final DocumentTransform transform;
+  private final ForkJoinPool pool;
+  private final Semaphore pendingBatches;
+  private final AtomicLong batchSequence = new AtomicLong();
+  private final LongAdder transformed = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+
+  public PreprocessingStage(IngestPipeline pipeline, DocumentTransform transform) {
+    this(pipeline, transform, Runtime.getRuntime().availableProcessors(), 4 * Runtime.getRuntime().availableProcessors());
+  }
+
+  public PreprocessingStage(IngestPipeline pipeline, DocumentTransform transform, int parallelism, int maxPendingBatches) {
+    this.pipeline = pipeline;
+    this.transform = transform;
+    this.pool = new ForkJoinPool(parallelism);
+    this.pendingBatches = new Semaphore(maxPendingBatches);
+  }
+
+  /**
+   * Transforms and indexes the documents asynchronously
+   */
+  public void submit(String indexName, String type, List<String> docs) {
+    try {
+      pendingBatches.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted submitting documents", e);
+    }
+
+    try {
+      pool.execute(new Batch(batchSequence.incrementAndGet(), indexName, type, docs));
+    } catch (RuntimeException e) {
+      pendingBatches.release();
+      throw e;
+    }
+  }
+
+  public long getTransformed() {
+    return transformed.sum();
+  }
+
+  public long getRejected() {
+    return rejected.sum();
+  }
+
+  /**
+   * Waits for the submitted documents to reach the pipeline, then flushes it. The pipeline
+   * itself is closed by its owner.
+   */
+  public boolean close(long timeout, TimeUnit unit) throws InterruptedException {
+    pool.shutdown();
+    boolean terminated = pool.awaitTermination(timeout, unit);
+    pipeline.flush();
+    log.info("preprocessing stage closed, {} documents transformed, {} rejected", transformed.sum(), rejected.sum());
+    return terminated;
+  }
+
+  /**
+   * @param batch sequence number of the submitted batch and position of the document in it,
+   * logged for rejected documents
+   */
+  private void process(long batch, int position, String indexName, String type, String doc) {
+    try {
+      @SuppressWarnings("unchecked")
+      Map<String, Object> parsed = (Map<String, Object>) parsers.get().parse(doc);
+      transform.apply(parsed);
+
+      StringWriter buffer = buffers.get();
+      buffer.getBuffer().setLength(0);
+      JSONObject.writeJSONString(parsed, buffer);
+
+      this.index(indexName, type, buffer.toString());
+      transformed.increment();
+    } catch (ParseException | RuntimeException | IOException e) {
+      // a failing transform (or pipeline) must not abort the rest of the batch
+      rejected.increment();
+      log.warn("rejected document {} of batch {}", position, batch, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      rejected.increment();
+      log.warn("interrupted indexing document {} of batch {}", position, batch);
+    }
+  }
+
+  /**
+   * BulkProcessor.add blocks until a bulk request slot is free
+   */
+  private void index(String indexName, String type, String doc) throws InterruptedException {
+    ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+      private boolean indexed;
+
+      @Override
+      public boolean block() {
+        pipeline.index(indexName, type, doc);
+        indexed = true;
+        return true;
+      }
+
+      @Override
+      public boolean isReleasable() {
+        return indexed;
+      }
+    });
+  }
+
+  private class Batch extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final long sequence;
+    private final String indexName;
+    private final String type;
+    private final transient List<String> docs;
+    // position of the first document in the submitted batch
+    private final int offset;
+    private final boolean root;
+
+    Batch(long sequence, String indexName, String type, List<String> docs) {
+      this(sequence, indexName, type, docs, 0, true);
+    }
+
+    private Batch(long sequence, String indexName, String type, List<String> docs, int offset, boolean root) {
+      this.sequence = sequence;
+      this.indexName = indexName;
+      this.type = type;
+      this.docs = docs;
+      this.offset = offset;
+      this.root = root;
+    }
+
+    @Override
+    protected void compute() {
+      try {
+        if (docs.size() <= SPLIT_THRESHOLD) {
+          for (int i = 0; i < docs.size(); i++) {
+            process(sequence, offset + i, indexName, type, docs.get(i));
+          }
+        } else {
+          int middle = docs.size() / 2;
+          invokeAll(new Batch(sequence, indexName, type, docs.subList(0, middle), offset, false),
+            new Batch(sequence, indexName, type, docs.subList(middle, docs.size()), offset + middle, false));
+        }
+      } finally {
+        if (root) {
+          pendingBatches.release();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package com.company.cache;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConsistentHashRingTest {
+
+  private static final int KEYS = 100000;
+  private static final List<String> PEERS = Arrays.asList("host1:9101", "host2:9101", "host3:9101", "host4:9101");
+
+  @Test
+  public void testKeysSpreadEvenly() {
+    ConsistentHashRing ring = new ConsistentHashRing(PEERS);
+
+    Map<String, Integer> counts = new HashMap<>();
+    for (int i = 0; i < KEYS; i++) {
+      counts.merge(ring.owner("query-" + i), 1, Integer::sum);
+    }
+
+    assertEquals(PEERS.size(), counts.size());
+    int expected = KEYS / PEERS.size();
+    for (Map.Entry<String, Integer> count : counts.entrySet()) {
+      assertTrue(count.getKey() + " owns " + count.getValue() + " keys",
+        Math.abs(count.getValue() - expected) < expected / 4);
+    }
+  }
+
+  @Test
+  public void testOwnerIsStable() {
+    ConsistentHashRing ring = new ConsistentHashRing(PEERS);
+    ConsistentHashRing reordered = new ConsistentHashRing(Arrays.asList("host3:9101", "host1:9101", "host4:9101", "host2:9101"));
+
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(ring.owner("query-" + i), reordered.owner("query-" + i));
+    }
+  }
+
+  @Test
+  public void testRemovingPeerOnlyMovesItsKeys() {
+    ConsistentHashRing ring = new ConsistentHashRing(PEERS);
+    ConsistentHashRing shrunk = new ConsistentHashRing(PEERS.subList(0, 3));
+
+    int moved = 0;
+    for (int i = 0; i < KEYS; i++) {
+      String owner = ring.owner("query-" + i);
+      if (owner.equals("host4:9101")) {
+        moved++;
+      } else {
+        assertEquals(owner, shrunk.owner("query-" + i));
+      }
+    }
+    assertTrue(moved > 0);
+  }
+
+  @Test
+  public void testSinglePeerOwnsEverything() {
+    ConsistentHashRing ring = new ConsistentHashRing(Collections.singletonList("localhost:9101"));
+    for (int i = 0; i < 100; i++) {
+      assertEquals("localhost:9101", ring.owner("query-" + i));
+    }
+  }
+
+  @Test
+  public void testEmptyRing() {
+    try {
+      new ConsistentHashRing(Collections.<String>emptyList()).owner("query");
+      fail("owner in an empty ring");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+}
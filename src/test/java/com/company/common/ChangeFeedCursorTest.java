@@ -0,0 +1,57 @@
+package com.company.common;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ChangeFeedCursorTest {
+
+  @Test
+  public void testStart() {
+    ChangeFeedCursor cursor = ChangeFeedCursor.start();
+    assertEquals("", cursor.toString());
+    assertEquals(ChangeFeedCursor.NO_SEQ_NO, cursor.getCheckpoint(0));
+  }
+
+  @Test
+  public void testRoundTrip() {
+    ChangeFeedCursor cursor = ChangeFeedCursor.start().advance(2, 17).advance(0, 5).advance(10, 123456789012L);
+    assertEquals("0:5,2:17,10:123456789012", cursor.toString());
+
+    ChangeFeedCursor parsed = ChangeFeedCursor.parse(cursor.toString());
+    assertEquals(cursor.toString(), parsed.toString());
+    assertEquals(5, parsed.getCheckpoint(0));
+    assertEquals(ChangeFeedCursor.NO_SEQ_NO, parsed.getCheckpoint(1));
+    assertEquals(17, parsed.getCheckpoint(2));
+    assertEquals(123456789012L, parsed.getCheckpoint(10));
+  }
+
+  @Test
+  public void testParseEmptyAndWhitespace() {
+    assertEquals("", ChangeFeedCursor.parse(null).toString());
+    assertEquals("", ChangeFeedCursor.parse("  ").toString());
+    assertEquals("1:3,4:7", ChangeFeedCursor.parse(" 4:7 , 1:3 ").toString());
+  }
+
+  @Test
+  public void testAdvanceNeverMovesBack() {
+    ChangeFeedCursor cursor = ChangeFeedCursor.start().advance(0, 10);
+    assertEquals(10, cursor.advance(0, 3).getCheckpoint(0));
+    assertEquals(11, cursor.advance(0, 11).getCheckpoint(0));
+    // cursors are immutable
+    assertEquals(10, cursor.getCheckpoint(0));
+  }
+
+  @Test
+  public void testParseInvalid() {
+    for (String invalid : new String[] {"0", "0:1:2", "a:1", "0:b", "0:1,,1:2"}) {
+      try {
+        ChangeFeedCursor.parse(invalid);
+        fail("parsed " + invalid);
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+}
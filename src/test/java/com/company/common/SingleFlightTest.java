@@ -0,0 +1,151 @@
+package com.company.common;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+
+  private final SingleFlight<String, String> flights = new SingleFlight<>();
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @After
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testConcurrentCallsShareOneCall() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+    Future<String> leader = this.lead("key", () -> {
+      calls.incrementAndGet();
+      await(release);
+      return "value";
+    });
+
+    Future<String> follower = executor.submit(() -> flights.execute("key", () -> "other"));
+    this.awaitWaiters("key", 1);
+    release.countDown();
+
+    assertEquals("value", leader.get(10, TimeUnit.SECONDS));
+    assertEquals("value", follower.get(10, TimeUnit.SECONDS));
+    assertEquals(1, calls.get());
+    assertEquals(0, flights.inFlight());
+    assertEquals(0, flights.waiters("key"));
+  }
+
+  @Test
+  public void testSequentialCallsAreNotShared() {
+    assertEquals("first", flights.execute("key", () -> "first"));
+    assertEquals("second", flights.execute("key", () -> "second"));
+  }
+
+  @Test
+  public void testFailureIsShared() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    Future<String> leader = this.lead("key", () -> {
+      await(release);
+      throw new IllegalArgumentException("failed");
+    });
+
+    Future<String> follower = executor.submit(() -> flights.execute("key", () -> "other"));
+    this.awaitWaiters("key", 1);
+    release.countDown();
+
+    assertFailure(IllegalArgumentException.class, leader);
+    assertFailure(IllegalArgumentException.class, follower);
+  }
+
+  @Test
+  public void testFollowersRetryAnAbandonedCall() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    Future<String> leader = this.lead("key", () -> {
+      await(release);
+      throw new CancellationException("abandoned");
+    });
+
+    Future<String> follower = executor.submit(() -> {
+      while (true) {
+        try {
+          return flights.execute("key", () -> "retried");
+        } catch (CancellationException e) {
+          // the leader gave up, retry
+        }
+      }
+    });
+    this.awaitWaiters("key", 1);
+    release.countDown();
+
+    assertFailure(CancellationException.class, leader);
+    assertEquals("retried", follower.get(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testInterruptedFollowerLeavesTheCallRunning() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    Future<String> leader = this.lead("key", () -> {
+      await(release);
+      return "value";
+    });
+
+    Future<String> follower = executor.submit(() -> flights.execute("key", () -> "other"));
+    this.awaitWaiters("key", 1);
+    follower.cancel(true);
+    this.awaitWaiters("key", 0);
+    release.countDown();
+
+    assertEquals("value", leader.get(10, TimeUnit.SECONDS));
+  }
+
+  /**
+   * Runs the call as leader of the key, returning once it is in flight
+   */
+  private Future<String> lead(String key, Supplier<String> call) throws InterruptedException {
+    CountDownLatch started = new CountDownLatch(1);
+    Future<String> leader = executor.submit(() -> flights.execute(key, () -> {
+      started.countDown();
+      return call.get();
+    }));
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    return leader;
+  }
+
+  private void awaitWaiters(String key, int waiters) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (flights.waiters(key) != waiters) {
+      assertTrue("waiters of " + key, System.currentTimeMillis() < deadline);
+      Thread.sleep(1);
+    }
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void assertFailure(Class<? extends Throwable> expected, Future<?> future) throws Exception {
+    try {
+      future.get(10, TimeUnit.SECONDS);
+      fail("expected " + expected.getSimpleName());
+    } catch (ExecutionException e) {
+      assertEquals(expected, e.getCause().getClass());
+    }
+  }
+}
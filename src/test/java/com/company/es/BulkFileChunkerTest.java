@@ -0,0 +1,157 @@
+package com.company.es;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BulkFileChunkerTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testNdjson() throws IOException {
+    Path file = this.write("{\"id\":1}\n\n{\"id\":2}\r\n{\"id\":3}");
+
+    try (BulkFileChunker chunker = new BulkFileChunker(file, 0, 1024)) {
+      assertEquals(BulkFileChunker.Format.NDJSON, chunker.getFormat());
+
+      BulkFileChunker.Chunk chunk = chunker.next();
+      assertEquals(3, chunk.getDocs());
+      assertEquals("{\"index\":{}}\n{\"id\":1}\n{\"index\":{}}\n{\"id\":2}\n{\"index\":{}}\n{\"id\":3}\n", body(chunk));
+      assertEquals(Files.size(file), chunk.getEndOffset());
+      assertNull(chunker.next());
+    }
+  }
+
+  @Test
+  public void testBulk() throws IOException {
+    Path file = this.write("{\"index\":{\"_id\":\"1\"}}\n{\"id\":1}\n{\"delete\":{\"_id\":\"2\"}}\n{\"update\":{\"_id\":\"3\"}}\n{\"doc\":{\"id\":3}}\n");
+
+    try (BulkFileChunker chunker = new BulkFileChunker(file, 0, 1024)) {
+      assertEquals(BulkFileChunker.Format.BULK, chunker.getFormat());
+
+      BulkFileChunker.Chunk chunk = chunker.next();
+      // a delete has no source line
+      assertEquals(3, chunk.getDocs());
+      assertEquals(new String(Files.readAllBytes(file), StandardCharsets.UTF_8), body(chunk));
+      assertNull(chunker.next());
+    }
+  }
+
+  @Test
+  public void testJsonArray() throws IOException {
+    Path file = this.write("[\n  {\n    \"id\": 1,\n    \"tags\": [\"a\", \"b\"]\n  },\n  {\"id\": 2, \"nested\": {\"x\": [1, {\"y\": 2}]}}\n]\n");
+
+    try (BulkFileChunker chunker = new BulkFileChunker(file, 0, 1024)) {
+      assertEquals(BulkFileChunker.Format.JSON_ARRAY, chunker.getFormat());
+
+      BulkFileChunker.Chunk chunk = chunker.next();
+      assertEquals(2, chunk.getDocs());
+      assertEquals("{\"index\":{}}\n{     \"id\": 1,     \"tags\": [\"a\", \"b\"]   }\n"
+        + "{\"index\":{}}\n{\"id\": 2, \"nested\": {\"x\": [1, {\"y\": 2}]}}\n", body(chunk));
+      assertNull(chunker.next());
+    }
+  }
+
+  @Test
+  public void testJsonArrayStringsWithBracketsAndEscapes() throws IOException {
+    Path file = this.write("[{\"title\":\"a } b ] c\",\"quote\":\"say \\\"}\\\" \\\\\"},{\"id\":\"[{\"}]");
+
+    try (BulkFileChunker chunker = new BulkFileChunker(file, 0, 1024)) {
+      List<String> docs = sources(chunker.next());
+      assertEquals(2, docs.size());
+      assertEquals("{\"title\":\"a } b ] c\",\"quote\":\"say \\\"}\\\" \\\\\"}", docs.get(0));
+      assertEquals("{\"id\":\"[{\"}", docs.get(1));
+    }
+  }
+
+  @Test
+  public void testChunksEndAtDocumentBoundaries() throws IOException {
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      content.append("{\"id\":").append(i).append("}\n");
+    }
+    Path file = this.write(content.toString());
+
+    int docs = 0;
+    int chunks = 0;
+    try (BulkFileChunker chunker = new BulkFileChunker(file, 0, 100)) {
+      BulkFileChunker.Chunk chunk;
+      while ((chunk = chunker.next()) != null) {
+        for (String source : sources(chunk)) {
+          assertEquals("{\"id\":" + docs++ + "}", source);
+        }
+        chunks++;
+      }
+    }
+    assertEquals(100, docs);
+    assertTrue(chunks > 1);
+  }
+
+  @Test
+  public void testResumeFromOffset() throws IOException {
+    Path file = this.write("[{\"id\":1},{\"id\":2},\n{\"id\":3},{\"id\":4}]");
+
+    long endOffset;
+    try (BulkFileChunker chunker = new BulkFileChunker(file, 0, 1)) {
+      // one document per chunk
+      assertEquals(1, chunker.next().getDocs());
+      endOffset = chunker.next().getEndOffset();
+    }
+
+    try (BulkFileChunker chunker = new BulkFileChunker(file, endOffset, 1024)) {
+      assertEquals(BulkFileChunker.Format.JSON_ARRAY, chunker.getFormat());
+      BulkFileChunker.Chunk chunk = chunker.next();
+      List<String> docs = sources(chunk);
+      assertEquals(2, docs.size());
+      assertEquals("{\"id\":3}", docs.get(0));
+      assertEquals("{\"id\":4}", docs.get(1));
+      assertEquals(Files.size(file), chunk.getEndOffset());
+      assertNull(chunker.next());
+    }
+  }
+
+  @Test
+  public void testEmptyFile() throws IOException {
+    Path file = this.write("");
+
+    try (BulkFileChunker chunker = new BulkFileChunker(file, 0, 1024)) {
+      assertNull(chunker.next());
+    }
+  }
+
+  private Path write(String content) throws IOException {
+    File file = folder.newFile();
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    return file.toPath();
+  }
+
+  private static String body(BulkFileChunker.Chunk chunk) {
+    return new String(chunk.getBody(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * The source lines of a chunk of index actions
+   */
+  private static List<String> sources(BulkFileChunker.Chunk chunk) {
+    List<String> sources = new ArrayList<>();
+    String[] lines = body(chunk).split("\n");
+    for (int i = 1; i < lines.length; i += 2) {
+      sources.add(lines[i]);
+    }
+    return sources;
+  }
+}
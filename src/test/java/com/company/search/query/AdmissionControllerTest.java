@@ -0,0 +1,150 @@
+package com.company.search.query;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AdmissionControllerTest {
+
+  private static final long SERVICE_MILLIS = 100;
+
+  private final TenantFairScheduler scheduler = new TenantFairScheduler(1);
+  private final AdmissionController admission = new AdmissionController(scheduler);
+
+  @Test
+  public void testWithoutDeadlineAlwaysAdmitted() throws Exception {
+    this.warmUp();
+    CountDownLatch release = this.block("tenant");
+
+    Result<String> queued = start(() -> admission.execute("tenant", null, () -> "done"));
+    awaitQueued(queued.thread);
+    release.countDown();
+    assertEquals("done", queued.get());
+  }
+
+  @Test
+  public void testIdleRequestAdmitted() throws Exception {
+    this.warmUp();
+    assertEquals(0, admission.getEstimatedWaitMillis("tenant"));
+    assertEquals("done", admission.execute("tenant", System.currentTimeMillis() + 4 * SERVICE_MILLIS, () -> "done"));
+  }
+
+  @Test
+  public void testNoisyTenantOnlyShedsItself() throws Exception {
+    this.warmUp();
+    CountDownLatch release = this.block("noisy");
+    List<Thread> backlog = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      backlog.add(this.queue("noisy"));
+    }
+
+    // the quiet tenant only waits for the running request, the noisy one for its whole backlog
+    assertEquals(1.0, scheduler.getWaitTurns("quiet"), 0.0);
+    assertEquals(6.0, scheduler.getWaitTurns("noisy"), 0.0);
+    try {
+      admission.execute("noisy", System.currentTimeMillis() + 4 * SERVICE_MILLIS, () -> "done");
+      fail("admitted behind its own backlog");
+    } catch (OverloadedException e) {
+      assertTrue(e.getMessage(), e.getEstimatedMillis() >= 6 * SERVICE_MILLIS / 2);
+    }
+
+    Result<String> quiet = start(() -> admission.execute("quiet", System.currentTimeMillis() + 4 * SERVICE_MILLIS, () -> "done"));
+    release.countDown();
+    assertEquals("done", quiet.get());
+    for (Thread thread : backlog) {
+      thread.join(10000);
+    }
+  }
+
+  @Test
+  public void testDeadlinePassedWhileQueued() throws Exception {
+    CountDownLatch release = this.block("tenant");
+    // no service time recorded yet, admitted
+    Result<String> late = start(() -> admission.execute("tenant", System.currentTimeMillis() + 50, () -> "done"));
+    awaitQueued(late.thread);
+    Thread.sleep(100);
+    release.countDown();
+
+    try {
+      late.get();
+      fail("ran after its deadline");
+    } catch (OverloadedException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Records the service time of a request
+   */
+  private void warmUp() throws Exception {
+    admission.execute("warm-up", null, () -> {
+      Thread.sleep(SERVICE_MILLIS);
+      return null;
+    });
+  }
+
+  /**
+   * Occupies the scheduler's slot with a request of the tenant until the returned latch is released
+   */
+  private CountDownLatch block(String tenantId) throws InterruptedException {
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    start(() -> scheduler.execute(tenantId, () -> {
+      running.countDown();
+      return release.await(10, TimeUnit.SECONDS);
+    }));
+    assertTrue(running.await(10, TimeUnit.SECONDS));
+    return release;
+  }
+
+  /**
+   * Queues a request of the tenant behind the blocked slot
+   */
+  private Thread queue(String tenantId) throws InterruptedException {
+    Result<Object> result = start(() -> scheduler.execute(tenantId, () -> null));
+    awaitQueued(result.thread);
+    return result.thread;
+  }
+
+  private static void awaitQueued(Thread thread) throws InterruptedException {
+    // queued requests wait on their admission latch
+    while (thread.getState() != Thread.State.WAITING) {
+      Thread.sleep(1);
+    }
+  }
+
+  private static <T> Result<T> start(Callable<T> call) {
+    Result<T> result = new Result<>();
+    result.thread = new Thread(() -> {
+      try {
+        result.value = call.call();
+      } catch (Exception e) {
+        result.failure = e;
+      }
+    });
+    result.thread.start();
+    return result;
+  }
+
+  private static class Result<T> {
+    private Thread thread;
+    private volatile T value;
+    private volatile Exception failure;
+
+    T get() throws Exception {
+      thread.join(10000);
+      if (failure != null) {
+        throw failure;
+      }
+      return value;
+    }
+  }
+}
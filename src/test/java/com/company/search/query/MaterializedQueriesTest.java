@@ -0,0 +1,109 @@
+package com.company.search.query;
+
+import com.company.common.ProfileFilter;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MaterializedQueriesTest {
+
+  private static final Map<ProfileFilter, List<String>> NO_FILTERS = Collections.emptyMap();
+
+  private final MaterializedQueries<String> queries = new MaterializedQueries<>(
+    key -> Collections.singletonList(key.getTenantId() + "/" + key.getQuery() + "/" + key.getProfileFilters()), 2, 3, 3600, 1);
+
+  @After
+  public void destroy() {
+    queries.destroy();
+  }
+
+  @Test
+  public void testHotQueryIsMaterialized() {
+    for (int i = 0; i < 3; i++) {
+      assertFalse(queries.lookup("tenant", "Reset my password!", NO_FILTERS).isPresent());
+    }
+    queries.lookup("tenant", "rare query", NO_FILTERS);
+    queries.refreshQuietly();
+
+    // normalized, so punctuation and case do not matter
+    assertEquals(Optional.of(Collections.singletonList("tenant/reset my password/{}")),
+      queries.lookup("tenant", "reset my PASSWORD", NO_FILTERS));
+    // below the minimum frequency
+    assertFalse(queries.lookup("tenant", "rare query", NO_FILTERS).isPresent());
+    // per tenant
+    assertFalse(queries.lookup("other", "reset my password", NO_FILTERS).isPresent());
+  }
+
+  @Test
+  public void testKeyedByProfileFilters() {
+    Map<ProfileFilter, List<String>> us = Collections.singletonMap(ProfileFilter.FILTER_BY_COUNTRY, Arrays.asList(" US ", "US"));
+    for (int i = 0; i < 3; i++) {
+      queries.lookup("tenant", "vpn", us);
+    }
+    queries.refreshQuietly();
+
+    assertEquals(Optional.of(Collections.singletonList("tenant/vpn/{FILTER_BY_COUNTRY=[US]}")),
+      queries.lookup("tenant", "vpn", Collections.singletonMap(ProfileFilter.FILTER_BY_COUNTRY, Collections.singletonList("US"))));
+    assertFalse(queries.lookup("tenant", "vpn", Collections.singletonMap(ProfileFilter.FILTER_BY_COUNTRY, Collections.singletonList("fr"))).isPresent());
+    assertFalse(queries.lookup("tenant", "vpn", NO_FILTERS).isPresent());
+  }
+
+  @Test
+  public void testTopN() {
+    for (int i = 0; i < 5; i++) {
+      queries.lookup("tenant", "first", NO_FILTERS);
+      queries.lookup("tenant", "second", NO_FILTERS);
+    }
+    for (int i = 0; i < 4; i++) {
+      queries.lookup("tenant", "third", NO_FILTERS);
+    }
+    queries.refreshQuietly();
+
+    assertTrue(queries.lookup("tenant", "first", NO_FILTERS).isPresent());
+    assertTrue(queries.lookup("tenant", "second", NO_FILTERS).isPresent());
+    assertFalse(queries.lookup("tenant", "third", NO_FILTERS).isPresent());
+  }
+
+  @Test
+  public void testOneOffQueriesAreEvicted() {
+    // one-off queries fill the table, so no new query is tracked
+    for (int i = 0; i < MaterializedQueries.MAX_TRACKED; i++) {
+      queries.lookup("tenant", "one off " + i, NO_FILTERS);
+    }
+    for (int i = 0; i < 3; i++) {
+      queries.lookup("tenant", "new hot query", NO_FILTERS);
+    }
+    queries.refreshQuietly();
+    assertFalse(queries.lookup("tenant", "new hot query", NO_FILTERS).isPresent());
+
+    // a single decay drops them, and the new hot query is tracked again
+    for (int i = 0; i < 3; i++) {
+      queries.lookup("tenant", "new hot query", NO_FILTERS);
+    }
+    queries.refreshQuietly();
+    assertTrue(queries.lookup("tenant", "new hot query", NO_FILTERS).isPresent());
+  }
+
+  @Test
+  public void testFrequenciesDecay() {
+    for (int i = 0; i < 6; i++) {
+      queries.lookup("tenant", "fading", NO_FILTERS);
+    }
+    queries.refreshQuietly();
+    assertTrue(queries.lookup("tenant", "fading", NO_FILTERS).isPresent());
+
+    // 7 -> 3 (+1 lookup) -> 2 -> 1, below the minimum frequency
+    queries.refreshQuietly();
+    queries.refreshQuietly();
+    assertFalse(queries.lookup("tenant", "fading", NO_FILTERS).isPresent());
+  }
+}
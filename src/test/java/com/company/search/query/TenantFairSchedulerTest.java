@@ -0,0 +1,162 @@
+package com.company.search.query;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TenantFairSchedulerTest {
+
+  @Test
+  public void testBurstingTenantOnlyQueuesBehindItself() throws Exception {
+    TenantFairScheduler scheduler = new TenantFairScheduler(1);
+    List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+    CountDownLatch release = this.block(scheduler, "blocker");
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      threads.add(this.submit(scheduler, "bursting", order));
+    }
+    threads.add(this.submit(scheduler, "quiet", order));
+    release.countDown();
+    join(threads);
+
+    // the quiet tenant runs as soon as the bursting one had its turn, not after the whole burst
+    assertTrue(order.toString(), order.indexOf("quiet") <= 1);
+  }
+
+  @Test
+  public void testWeights() throws Exception {
+    TenantFairScheduler scheduler = new TenantFairScheduler(1);
+    scheduler.setWeight("heavy", 2);
+    List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+    CountDownLatch release = this.block(scheduler, "blocker");
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      threads.add(this.submit(scheduler, "heavy", order));
+      threads.add(this.submit(scheduler, "light", order));
+    }
+    release.countDown();
+    join(threads);
+
+    // while both tenants have requests queued, heavy gets about twice the turns of light
+    int heavy = Collections.frequency(order.subList(0, 6), "heavy");
+    assertTrue(order.toString(), heavy >= 3 && heavy <= 5);
+  }
+
+  @Test
+  public void testTenantConcurrencyCap() throws Exception {
+    TenantFairScheduler scheduler = new TenantFairScheduler(4);
+    scheduler.setConcurrency("capped", 2);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      threads.add(start(() -> scheduler.execute("capped", () -> {
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        Thread.sleep(20);
+        return running.decrementAndGet();
+      })));
+    }
+
+    // the cap leaves room for other tenants
+    CountDownLatch release = this.block(scheduler, "other");
+    release.countDown();
+    join(threads);
+
+    assertEquals(2, maxRunning.get());
+  }
+
+  @Test
+  public void testGlobalConcurrency() throws Exception {
+    TenantFairScheduler scheduler = new TenantFairScheduler(3);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < 12; i++) {
+      String tenantId = "tenant-" + (i % 4);
+      threads.add(start(() -> scheduler.execute(tenantId, () -> {
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        Thread.sleep(20);
+        return running.decrementAndGet();
+      })));
+    }
+    join(threads);
+
+    assertEquals(3, maxRunning.get());
+  }
+
+  @Test
+  public void testNullTenant() throws Exception {
+    TenantFairScheduler scheduler = new TenantFairScheduler(1);
+    scheduler.setWeight(null, 2);
+    scheduler.setConcurrency(null, 1);
+
+    assertEquals("done", scheduler.execute(null, () -> "done"));
+  }
+
+  @Test
+  public void testIdleTenantReturns() throws Exception {
+    TenantFairScheduler scheduler = new TenantFairScheduler(1);
+    // the tenant is forgotten once idle and starts over at the virtual time
+    for (int i = 0; i < 3; i++) {
+      int value = i;
+      assertEquals(value, (int) scheduler.execute("tenant", () -> value));
+    }
+  }
+
+  /**
+   * Occupies one slot of the scheduler until the returned latch is released
+   */
+  private CountDownLatch block(TenantFairScheduler scheduler, String tenantId) throws InterruptedException {
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    start(() -> scheduler.execute(tenantId, () -> {
+      running.countDown();
+      return release.await(10, TimeUnit.SECONDS);
+    }));
+    assertTrue(running.await(10, TimeUnit.SECONDS));
+    return release;
+  }
+
+  /**
+   * Submits a request recording the tenant when it runs, once the request is queued
+   */
+  private Thread submit(TenantFairScheduler scheduler, String tenantId, List<String> order) throws InterruptedException {
+    Thread thread = start(() -> scheduler.execute(tenantId, () -> order.add(tenantId)));
+    // queued requests wait on their admission latch
+    while (thread.getState() != Thread.State.WAITING) {
+      Thread.sleep(1);
+    }
+    return thread;
+  }
+
+  private static Thread start(Callable<?> call) {
+    Thread thread = new Thread(() -> {
+      try {
+        call.call();
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    thread.start();
+    return thread;
+  }
+
+  private static void join(List<Thread> threads) throws InterruptedException {
+    for (Thread thread : threads) {
+      thread.join(10000);
+    }
+  }
+}
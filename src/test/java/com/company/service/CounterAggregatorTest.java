@@ -0,0 +1,231 @@
+package com.company.service;
+
+import com.company.common.ISearch;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CounterAggregatorTest {
+
+  // flushed explicitly by the tests
+  private static final long NEVER = TimeUnit.HOURS.toMillis(1);
+
+  private final Map<String, Long> applied = new ConcurrentHashMap<>();
+  // fails the update of an id, null to apply it
+  private volatile Function<String, Exception> failures = id -> null;
+
+  @Test
+  public void testIncrementsAreMerged() throws Exception {
+    CounterAggregator aggregator = new CounterAggregator(this.search(), NEVER);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    for (int thread = 0; thread < 8; thread++) {
+      executor.execute(() -> {
+        for (int i = 0; i < 10000; i++) {
+          aggregator.increment("products", "1", "sold", 1);
+        }
+      });
+    }
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    aggregator.increment("products", "2", "in_stock", -3);
+    aggregator.flush();
+
+    assertEquals(Long.valueOf(80000), applied.get("products/1/sold"));
+    assertEquals(Long.valueOf(-3), applied.get("products/2/in_stock"));
+    aggregator.destroy();
+  }
+
+  @Test
+  public void testConcurrentFlushesLoseNothing() throws Exception {
+    CounterAggregator aggregator = new CounterAggregator(this.search(), NEVER);
+    AtomicBoolean running = new AtomicBoolean(true);
+    Thread flusher = new Thread(() -> {
+      while (running.get()) {
+        aggregator.flush();
+      }
+    });
+    flusher.start();
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    for (int thread = 0; thread < 4; thread++) {
+      executor.execute(() -> {
+        for (int i = 0; i < 20000; i++) {
+          // few hot ids and many idle ones, so counters are dropped and recreated while in use
+          aggregator.increment("products", Integer.toString(i % 50), "sold", 1);
+        }
+      });
+    }
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    running.set(false);
+    flusher.join();
+    aggregator.destroy();
+
+    assertEquals(80000, applied.values().stream().mapToLong(Long::longValue).sum());
+  }
+
+  @Test
+  public void testIdleCountersAreDropped() {
+    CounterAggregator aggregator = new CounterAggregator(this.search(), NEVER);
+    for (int i = 0; i < 100; i++) {
+      aggregator.increment("products", Integer.toString(i), "sold", 1);
+    }
+    aggregator.flush();
+    assertEquals(100, applied.size());
+
+    // idle since the last flush
+    aggregator.flush();
+    assertEquals(0, aggregator.tracked());
+    aggregator.destroy();
+  }
+
+  @Test
+  public void testOnlyDefinitelyFailedUpdatesAreRetried() {
+    CounterAggregator aggregator = new CounterAggregator(this.search(), NEVER);
+    failures = id -> {
+      switch (id) {
+        case "rejected":
+          return new EsRejectedExecutionException("rejected");
+        case "timed-out":
+          // may have been applied
+          return new ElasticsearchException("timed out");
+        default:
+          return null;
+      }
+    };
+    for (String id : new String[] {"applied", "rejected", "timed-out"}) {
+      aggregator.increment("products", id, "sold", 2);
+    }
+    aggregator.flush();
+
+    failures = id -> null;
+    aggregator.increment("products", "rejected", "sold", 1);
+    aggregator.flush();
+
+    assertEquals(Long.valueOf(2), applied.get("products/applied/sold"));
+    assertEquals(Long.valueOf(3), applied.get("products/rejected/sold"));
+    assertEquals(null, applied.get("products/timed-out/sold"));
+    aggregator.destroy();
+  }
+
+  @Test
+  public void testFailedFlushIsNotRetried() {
+    AtomicInteger calls = new AtomicInteger();
+    ISearch search = (ISearch) Proxy.newProxyInstance(ISearch.class.getClassLoader(), new Class<?>[] {ISearch.class},
+      (proxy, method, args) -> {
+        calls.incrementAndGet();
+        throw new ElasticsearchException("disconnected");
+      });
+    CounterAggregator aggregator = new CounterAggregator(search, NEVER);
+    aggregator.increment("products", "1", "sold", 1);
+    aggregator.flush();
+    aggregator.flush();
+
+    // may have been applied, not sent again
+    assertEquals(1, calls.get());
+    aggregator.destroy();
+  }
+
+  @Test
+  public void testDestroyFlushesPending() throws Exception {
+    // destroy() waits a flush interval between its final flushes
+    CounterAggregator aggregator = new CounterAggregator(this.search(), 10);
+    aggregator.increment("products", "1", "sold", 5);
+
+    // rejected once, then applied by the final flushes
+    AtomicBoolean rejected = new AtomicBoolean();
+    failures = id -> rejected.compareAndSet(false, true) ? new EsRejectedExecutionException("rejected") : null;
+    aggregator.destroy();
+    assertEquals(Long.valueOf(5), applied.get("products/1/sold"));
+
+    try {
+      aggregator.increment("products", "1", "sold", 1);
+      fail("increment after destroy");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testIncrementsRacingWithDestroyAreFlushed() throws Exception {
+    CounterAggregator aggregator = new CounterAggregator(this.search(), NEVER);
+    CountDownLatch started = new CountDownLatch(4);
+    List<Thread> threads = new ArrayList<>();
+    Map<Thread, Long> accepted = new ConcurrentHashMap<>();
+    for (int i = 0; i < 4; i++) {
+      Thread thread = new Thread(() -> {
+        long count = 0;
+        started.countDown();
+        try {
+          while (true) {
+            aggregator.increment("products", "1", "sold", 1);
+            count++;
+          }
+        } catch (IllegalStateException e) {
+          // destroyed
+        }
+        accepted.put(Thread.currentThread(), count);
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    started.await();
+    Thread.sleep(20);
+    aggregator.destroy();
+    for (Thread thread : threads) {
+      thread.join(10000);
+    }
+
+    assertEquals(accepted.values().stream().mapToLong(Long::longValue).sum(), (long) applied.get("products/1/sold"));
+  }
+
+  /**
+   * Applies the increments to the applied map, failing the ids the failures function fails
+   */
+  private ISearch search() {
+    return (ISearch) Proxy.newProxyInstance(ISearch.class.getClassLoader(), new Class<?>[] {ISearch.class},
+      (proxy, method, args) -> {
+        if (!method.getName().equals("increment")) {
+          throw new UnsupportedOperationException(method.getName());
+        }
+        String indexName = (String) args[0];
+        @SuppressWarnings("unchecked")
+        Map<String, Map<String, Long>> deltas = (Map<String, Map<String, Long>>) args[1];
+
+        List<BulkItemResponse> items = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Long>> doc : new HashMap<>(deltas).entrySet()) {
+          Exception failure = failures.apply(doc.getKey());
+          if (failure != null) {
+            items.add(new BulkItemResponse(items.size(), DocWriteRequest.OpType.UPDATE,
+              new BulkItemResponse.Failure(indexName, "default", doc.getKey(), failure)));
+          } else {
+            doc.getValue().forEach((field, delta) -> applied.merge(indexName + "/" + doc.getKey() + "/" + field, delta, Long::sum));
+            items.add(new BulkItemResponse(items.size(), DocWriteRequest.OpType.UPDATE, (DocWriteResponse) null));
+          }
+        }
+        return new BulkResponse(items.toArray(new BulkItemResponse[0]), 1);
+      });
+  }
+}
@@ -0,0 +1,153 @@
+package com.company.service;
+
+import com.company.es.IngestPipeline;
+import org.elasticsearch.client.Client;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PreprocessingStageTest {
+
+  private final List<String> indexed = Collections.synchronizedList(new ArrayList<>());
+
+  @Test
+  public void testProductsAreTransformed() throws Exception {
+    IngestPipeline pipeline = this.pipeline(null);
+    PreprocessingStage stage = new PreprocessingStage(pipeline, DocumentTransforms.products(), 4, 2);
+
+    List<String> docs = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      docs.add("{\"id\":" + i + ",\"tags\":[\"Wine\",\"RED\"],\"created\":\"03/21/2019\",\"price\":\"12.5\",\"in_stock\":\"2.0\",\"sold\":" + i + ".0}");
+    }
+    stage.submit("products", "default", docs);
+    assertTrue(stage.close(10, TimeUnit.SECONDS));
+    pipeline.close(1, TimeUnit.SECONDS);
+
+    assertEquals(200, stage.getTransformed());
+    assertEquals(0, stage.getRejected());
+    assertEquals(200, indexed.size());
+
+    JSONObject doc = (JSONObject) JSONValue.parse(indexed.get(0));
+    assertEquals(Arrays.asList("wine", "red"), doc.get("tags"));
+    assertEquals("2019-03-21", doc.get("created"));
+    assertEquals(12.5, doc.get("price"));
+    assertEquals(2L, doc.get("in_stock"));
+  }
+
+  @Test
+  public void testRejectedDocumentsDoNotStopTheBatch() throws Exception {
+    IngestPipeline pipeline = this.pipeline(null);
+    PreprocessingStage stage = new PreprocessingStage(pipeline, DocumentTransforms.required("name"), 2, 2);
+
+    List<String> docs = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      docs.add((i % 10 == 0) ? "{\"name\":\" \"}" : "{\"name\":\"doc " + i + "\"}");
+    }
+    docs.add("not json");
+    stage.submit("products", "default", docs);
+    assertTrue(stage.close(10, TimeUnit.SECONDS));
+    pipeline.close(1, TimeUnit.SECONDS);
+
+    assertEquals(90, stage.getTransformed());
+    assertEquals(11, stage.getRejected());
+    assertEquals(90, indexed.size());
+  }
+
+  @Test
+  public void testBlockedPipelineDoesNotStarveThePool() throws Exception {
+    // the first documents block in the pipeline, like BulkProcessor.add with no bulk slot free
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger blocked = new AtomicInteger();
+    IngestPipeline pipeline = this.pipeline(() -> {
+      if (blocked.getAndIncrement() < 2) {
+        try {
+          release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    PreprocessingStage stage = new PreprocessingStage(pipeline, doc -> { }, 2, 4);
+
+    for (int batch = 0; batch < 4; batch++) {
+      stage.submit("products", "default", Collections.singletonList("{\"batch\":" + batch + "}"));
+    }
+    // both workers are blocked, compensating threads index the other batches
+    long deadline = System.currentTimeMillis() + 10000;
+    while (indexed.size() < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+    assertEquals(2, indexed.size());
+
+    release.countDown();
+    assertTrue(stage.close(10, TimeUnit.SECONDS));
+    pipeline.close(1, TimeUnit.SECONDS);
+    assertEquals(4, indexed.size());
+  }
+
+  @Test
+  public void testDocumentTransforms() {
+    Map<String, Object> doc = new HashMap<>();
+    doc.put("tags", "Wine");
+    doc.put("created", "2019/03/21");
+    doc.put("sold", 3.7);
+    doc.put("price", 4L);
+    DocumentTransforms.lowercase("tags")
+      .andThen(DocumentTransforms.parseDate("created"))
+      .andThen(DocumentTransforms.toLong("sold"))
+      .andThen(DocumentTransforms.toDouble("price"))
+      .apply(doc);
+
+    assertEquals("wine", doc.get("tags"));
+    assertEquals("2019-03-21", doc.get("created"));
+    assertEquals(3L, doc.get("sold"));
+    assertEquals(4.0, doc.get("price"));
+
+    for (DocumentTransform invalid : Arrays.asList(
+      DocumentTransforms.parseDate("created"), DocumentTransforms.toDouble("price"), DocumentTransforms.required("name"))) {
+      Map<String, Object> bad = new HashMap<>();
+      bad.put("created", "yesterday");
+      bad.put("price", "cheap");
+      try {
+        invalid.apply(bad);
+        fail("applied to " + bad);
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+
+  /**
+   * Records the documents instead of sending them, after running beforeIndex if any
+   */
+  private IngestPipeline pipeline(Runnable beforeIndex) {
+    Client client = (Client) Proxy.newProxyInstance(Client.class.getClassLoader(), new Class<?>[] {Client.class}, (proxy, method, args) -> {
+      throw new UnsupportedOperationException(method.getName());
+    });
+
+    return new IngestPipeline(client, IngestPipeline.Options.builder().build()) {
+      @Override
+      public void index(String indexName, String type, String doc) {
+        if (beforeIndex != null) {
+          beforeIndex.run();
+        }
+        indexed.add(doc);
+      }
+    };
+  }
+}